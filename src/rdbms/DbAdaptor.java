@@ -1,11 +1,15 @@
 package rdbms;
 
 import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
+import java.sql.Savepoint;
 import java.sql.Statement;
+import java.sql.Timestamp;
 import java.sql.Types;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 
@@ -30,7 +34,52 @@ public abstract class DbAdaptor {
 		return _connection.model();
 	}
 	
+	public DbStatementStatistics statementStatistics() {
+		return DbStatementStatistics.forModel(model());
+	}
+	
 	public abstract boolean supportsSequence();
+	
+	public String sqlForNextSequenceValues(String sequenceName, int count) {
+		return null;
+	}
+	
+	private boolean _warnedLockMode = false;
+	
+	public String lockClause(DbQuerySpecification.LockMode mode) {
+		if(mode == null || mode == DbQuerySpecification.LockMode.None)
+			return "";
+		if(mode != DbQuerySpecification.LockMode.ForUpdate && !_warnedLockMode) {
+			DbLogger.rdbms_adaptor.warn(getClass().getSimpleName() + " does not support lock mode " + mode + ". Uses FOR UPDATE instead.");
+			_warnedLockMode = true;
+		}
+		return " FOR UPDATE";
+	}
+	
+	protected String forUpdateClause(DbQuerySpecification.LockMode mode) {
+		if(mode == null || mode == DbQuerySpecification.LockMode.None)
+			return "";
+		if(mode == DbQuerySpecification.LockMode.NoWait)
+			return " FOR UPDATE NOWAIT";
+		if(mode == DbQuerySpecification.LockMode.SkipLocked)
+			return " FOR UPDATE SKIP LOCKED";
+		return " FOR UPDATE";
+	}
+	
+	public String limitClause(int limitSize, int limitStart) {
+		StringBuffer sql = new StringBuffer();
+		if(limitSize >= 0)
+			sql.append(" LIMIT " + limitSize);
+		else if(limitStart > 0)
+			sql.append(" LIMIT " + Long.MAX_VALUE);
+		if(limitStart > 0)
+			sql.append(" OFFSET " + limitStart);
+		return sql.toString();
+	}
+	
+	public String nullValueForField(DbField field) {
+		return "NULL";
+	}
 
 	public boolean isConnected() {
 		return _connection != null && _connection.isConnected();
@@ -55,19 +104,90 @@ public abstract class DbAdaptor {
 		return result;
 	}
 	
+	public int[] executeBatch(List<String> sqlCommands) throws SQLException {
+		Statement stmt = _connection.createStatement();
+		try {
+			for(String sql : sqlCommands) {
+				stmt.addBatch(sql);
+			}
+			return stmt.executeBatch();
+		} finally {
+			if(stmt != null)	stmt.close();
+		}
+	}
+	
+	public List<Object> executeInsert(String sqlCommand, String[] keyColumnNames) throws SQLException {
+		List<Object> keys = ListUtils.list();
+		Statement stmt = _connection.createStatement();
+		ResultSet rs = null;
+		try {
+			stmt.executeUpdate(sqlCommand, Statement.RETURN_GENERATED_KEYS);
+			rs = stmt.getGeneratedKeys();
+			while(rs.next()) {
+				keys.add(rs.getObject(1));
+			}
+		} finally {
+			if(rs != null)		rs.close();
+			if(stmt != null)	stmt.close();
+		}
+		return keys;
+	}
+	
+	public List<Object> executeInsertBatch(String sqlCommand, List<Object[]> parameterRows, String[] keyColumnNames) throws SQLException {
+		List<Object> keys = ListUtils.list(parameterRows.size());
+		PreparedStatement stmt = prepareInsertStatement(sqlCommand, keyColumnNames);
+		ResultSet rs = null;
+		try {
+			for(Object[] parameters : parameterRows) {
+				for(int i = 0; i < parameters.length; i++) {
+					setParameter(stmt, i + 1, parameters[i]);
+				}
+				stmt.addBatch();
+			}
+			stmt.executeBatch();
+			rs = stmt.getGeneratedKeys();
+			while(rs.next()) {
+				keys.add(rs.getObject(1));
+			}
+		} finally {
+			if(rs != null)		rs.close();
+			if(stmt != null)	stmt.close();
+		}
+		return keys;
+	}
+	
+	protected PreparedStatement prepareInsertStatement(String sqlCommand, String[] keyColumnNames) throws SQLException {
+		return _connection.jdbcConnection().prepareStatement(sqlCommand, Statement.RETURN_GENERATED_KEYS);
+	}
+	
+	protected void setParameter(PreparedStatement stmt, int index, Object value) throws SQLException {
+		if(value == null)
+			stmt.setNull(index, Types.NULL);
+		else if(value instanceof java.util.Date && !(value instanceof Timestamp))
+			stmt.setTimestamp(index, new Timestamp(((java.util.Date) value).getTime()));
+		else
+			stmt.setObject(index, value);
+	}
+	
 	public List<Map<String, Object>> executeQuery(String sqlCommand) throws SQLException {
 		List<Map<String, Object>> rows = ListUtils.list();
 		
 		Statement stmt = _connection.createStatement();
 		ResultSet rs = stmt.executeQuery(sqlCommand);
 		try {
+			String colNames[] = null;
 			while(rs.next()) {
-				ResultSetMetaData rsm = rs.getMetaData();
+				if(colNames == null) {
+					ResultSetMetaData rsm = rs.getMetaData();
+					colNames = new String[rsm.getColumnCount()];
+					for(int i = 0; i < colNames.length; i++) {
+						colNames[i] = resultColumnName(rsm.getColumnName(i+1));
+					}
+				}
 				Map<String, Object> row = MapUtils.map();
-				for(int i = 0; i < rsm.getColumnCount(); i++) {
-					String colName = rsm.getColumnName(i+1);
+				for(int i = 0; i < colNames.length; i++) {
 					Object value = getData(rs, i+1);
-					row.put(colName,  value);
+					row.put(colNames[i],  value);
 				}
 				rows.add(row);
 			}
@@ -78,6 +198,58 @@ public abstract class DbAdaptor {
 		return rows;
 	}
 	
+	protected String resultColumnName(String columnName) {
+		return columnName;
+	}
+	
+	protected String explainStatement(String sqlCommand) {
+		return null;
+	}
+	
+	public List<String> explain(String sqlCommand) {
+		String explain = explainStatement(sqlCommand);
+		if(explain == null)
+			return null;
+		List<String> plan = ListUtils.list();
+		Connection connection = _connection.jdbcConnection();
+		Savepoint savepoint = null;
+		try {
+			// a failing EXPLAIN must not abort the caller's transaction
+			if(!connection.getAutoCommit())
+				savepoint = connection.setSavepoint();
+			for(Map<String, Object> row : executeQuery(explain)) {
+				StringBuffer line = new StringBuffer();
+				for(Object value : row.values()) {
+					if(line.length() > 0)
+						line.append(" | ");
+					line.append(value);
+				}
+				plan.add(line.toString());
+			}
+			if(savepoint != null)
+				releaseSavepoint(connection, savepoint);
+		} catch (SQLException e) {
+			DbLogger.rdbms_adaptor.warn("Could not explain SQL \"" + sqlCommand + "\"", e);
+			if(savepoint != null) {
+				try {
+					connection.rollback(savepoint);
+				} catch (SQLException ex) {
+					DbLogger.rdbms_adaptor.warn("Failed to roll back to savepoint after EXPLAIN", ex);
+				}
+			}
+			return null;
+		}
+		return plan;
+	}
+	
+	private void releaseSavepoint(Connection connection, Savepoint savepoint) {
+		try {
+			connection.releaseSavepoint(savepoint);
+		} catch (SQLException e) {
+			DbLogger.rdbms_adaptor.debug("Could not release savepoint after EXPLAIN", e);
+		}
+	}
+	
 	public void beginTransaction() throws Exception {
 		Assert.that(isConnected(), "Couldn't commit transaction because JDBC Connection is closed");
 		_connection.beginTransaction();
@@ -166,18 +338,15 @@ public abstract class DbAdaptor {
 	protected abstract int defaultIsolationLevel();
 	
 	public void lockRecord(DbEntity entity, Object primaryKey) throws SQLException {
-		if(supportsIsolationLevel(Connection.TRANSACTION_SERIALIZABLE))
-			setIsolationLevel(Connection.TRANSACTION_SERIALIZABLE);
-		else if(supportsIsolationLevel(Connection.TRANSACTION_REPEATABLE_READ))
-			setIsolationLevel(Connection.TRANSACTION_REPEATABLE_READ);
-		else if(supportsIsolationLevel(Connection.TRANSACTION_READ_COMMITTED))
-			setIsolationLevel(Connection.TRANSACTION_READ_COMMITTED);
-		else
-			setIsolationLevel(defaultIsolationLevel());
+		String qualifier = primaryKey instanceof DbRowID ? entity.primaryKeyQualifierForRowID((DbRowID) primaryKey) : entity.primaryKeyQualifierForRowID(new DbRowID(entity.primaryKeyField().key(), primaryKey));
+		String sql = "SELECT " + ListUtils.listToString(Arrays.asList(entity.primaryKeyColumnNames()), ", ") + " FROM " + entity.tableName() + " WHERE " + qualifier + lockClause(DbQuerySpecification.LockMode.ForUpdate);
+		DbLogger.rdbms_command.debug(sql);
+		List<Map<String, Object>> rows = executeQuery(sql);
+		if(rows.isEmpty())
+			DbLogger.rdbms_adaptor.warn("No row of entity '" + entity.entityName() + "' to lock for primary key " + primaryKey);
 	}
 	
 	public void unlockRecord(DbEntity entity, Object primaryKey) {
-		setIsolationLevel(defaultIsolationLevel());
 	}
 	
 	public void lockTable(DbEntity entity) throws SQLException {
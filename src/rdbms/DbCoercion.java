@@ -0,0 +1,196 @@
+package rdbms;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.text.DateFormat;
+import java.text.ParseException;
+
+import rdbms.util.DbLogger;
+
+public abstract class DbCoercion {
+
+	public abstract Object coerce(Object value);
+
+	private static final DbCoercion ToString = new StringCoercion();
+	private static final DbCoercion ToInteger = new IntegerCoercion();
+	private static final DbCoercion ToShort = new ShortCoercion();
+	private static final DbCoercion ToLong = new LongCoercion();
+	private static final DbCoercion ToFloat = new FloatCoercion();
+	private static final DbCoercion ToDouble = new DoubleCoercion();
+	private static final DbCoercion ToBigInteger = new BigIntegerCoercion();
+	private static final DbCoercion ToBigDecimal = new BigDecimalCoercion();
+	private static final DbCoercion ToBoolean = new BooleanCoercion();
+
+	public static DbCoercion forValueClass(Class<?> valueClass, DateFormat dateFormat) {
+		if(valueClass == null || valueClass.equals(String.class))
+			return ToString;
+		if(valueClass.equals(Integer.class))
+			return ToInteger;
+		if(valueClass.equals(Short.class))
+			return ToShort;
+		if(valueClass.equals(Long.class))
+			return ToLong;
+		if(valueClass.equals(Float.class))
+			return ToFloat;
+		if(valueClass.equals(Double.class))
+			return ToDouble;
+		if(valueClass.equals(BigInteger.class))
+			return ToBigInteger;
+		if(valueClass.equals(BigDecimal.class))
+			return ToBigDecimal;
+		if(valueClass.equals(Boolean.class))
+			return ToBoolean;
+		if(valueClass.equals(java.util.Date.class))
+			return new DateCoercion(dateFormat);
+		return new Identity(valueClass);
+	}
+
+	static String numberString(Object value) {
+		String str = value.toString();
+		StringBuffer b = null;
+		for(int i = 0, length = str.length(); i < length; i++) {
+			char ch = str.charAt(i);
+			if((ch >= '0' && ch <= '9') || ch == '.') {
+				if(b != null)
+					b.append(ch);
+			} else if(b == null) {
+				b = new StringBuffer(length);
+				b.append(str, 0, i);
+			}
+		}
+		str = b != null ? b.toString() : str;
+		return str.length() > 0 ? str : null;
+	}
+
+	static abstract class NumberCoercion extends DbCoercion {
+		protected abstract Class<?> numberClass();
+		protected abstract Object fromNumber(Number value);
+		protected abstract Object fromString(String value);
+
+		@Override
+		public Object coerce(Object value) {
+			if(value == null || numberClass().isInstance(value))
+				return value;
+			if(value instanceof Number)
+				return fromNumber((Number) value);
+			String str = numberString(value);
+			if(str == null)
+				return null;
+			try {
+				return fromString(str);
+			} catch (NumberFormatException e) {
+				DbLogger.rdbms.warn("coerceToNumber(): The value " + value + " seems not to be a number");
+				return null;
+			}
+		}
+	}
+
+	static class StringCoercion extends DbCoercion {
+		@Override
+		public Object coerce(Object value) {
+			if(value == null || value instanceof String)
+				return value;
+			return value.toString();
+		}
+	}
+
+	static class IntegerCoercion extends NumberCoercion {
+		protected Class<?> numberClass()				{ return Integer.class; }
+		protected Object fromNumber(Number value)		{ return Integer.valueOf(value.intValue()); }
+		protected Object fromString(String value)		{ return Integer.valueOf(value); }
+	}
+
+	static class ShortCoercion extends NumberCoercion {
+		protected Class<?> numberClass()				{ return Short.class; }
+		protected Object fromNumber(Number value)		{ return Short.valueOf(value.shortValue()); }
+		protected Object fromString(String value)		{ return Short.valueOf(value); }
+	}
+
+	static class LongCoercion extends NumberCoercion {
+		protected Class<?> numberClass()				{ return Long.class; }
+		protected Object fromNumber(Number value)		{ return Long.valueOf(value.longValue()); }
+		protected Object fromString(String value)		{ return Long.valueOf(value); }
+	}
+
+	static class FloatCoercion extends NumberCoercion {
+		protected Class<?> numberClass()				{ return Float.class; }
+		protected Object fromNumber(Number value)		{ return Float.valueOf(value.floatValue()); }
+		protected Object fromString(String value)		{ return Float.valueOf(value); }
+	}
+
+	static class DoubleCoercion extends NumberCoercion {
+		protected Class<?> numberClass()				{ return Double.class; }
+		protected Object fromNumber(Number value)		{ return Double.valueOf(value.doubleValue()); }
+		protected Object fromString(String value)		{ return Double.valueOf(value); }
+	}
+
+	static class BigIntegerCoercion extends NumberCoercion {
+		protected Class<?> numberClass()				{ return BigInteger.class; }
+		protected Object fromNumber(Number value) {
+			if(value instanceof BigDecimal)
+				return ((BigDecimal) value).toBigInteger();
+			if(value instanceof Double || value instanceof Float)
+				return new BigDecimal(value.doubleValue()).toBigInteger();
+			return BigInteger.valueOf(value.longValue());
+		}
+		protected Object fromString(String value)		{ return new BigDecimal(value).toBigInteger(); }
+	}
+
+	static class BigDecimalCoercion extends NumberCoercion {
+		protected Class<?> numberClass()				{ return BigDecimal.class; }
+		protected Object fromNumber(Number value)		{ return new BigDecimal(value.toString()); }
+		protected Object fromString(String value)		{ return new BigDecimal(value); }
+	}
+
+	static class BooleanCoercion extends DbCoercion {
+		@Override
+		public Object coerce(Object value) {
+			if(value == null || value instanceof Boolean)
+				return value;
+			if(value instanceof Number)
+				return Boolean.valueOf(((Number) value).intValue() != 0);
+			String s = value.toString();
+			if("true".equalsIgnoreCase(s) || "yes".equalsIgnoreCase(s) || "1".equals(s))
+				return Boolean.TRUE;
+			return Boolean.FALSE;
+		}
+	}
+
+	static class DateCoercion extends DbCoercion {
+		DateFormat _format;
+
+		DateCoercion(DateFormat format) {
+			_format = format;
+		}
+
+		@Override
+		public Object coerce(Object value) {
+			if(value == null || value instanceof java.util.Date)
+				return value;
+			String s = value.toString();
+			if(s.length() == 0)
+				return null;
+			try {
+				synchronized(_format) {
+					return _format.parseObject(s);
+				}
+			} catch (ParseException e) {
+				DbLogger.rdbms.warn("DbCoercion could not parse date string with format '" + _format + "'", e);
+				return null;
+			}
+		}
+	}
+
+	static class Identity extends DbCoercion {
+		Class<?> _valueClass;
+
+		Identity(Class<?> valueClass) {
+			_valueClass = valueClass;
+		}
+
+		@Override
+		public Object coerce(Object value) {
+			return value;
+		}
+	}
+}
@@ -4,6 +4,7 @@ import java.util.Properties;
 
 public class DbConnectionInfo {
 	String _driverClass;
+	String _adaptorClass;
 	String _url;
 	String _username;
 	String _password;
@@ -15,6 +16,12 @@ public class DbConnectionInfo {
 	public void setDriverClass(String driverClass) {
 		_driverClass = driverClass;
 	}
+	public String adaptorClass() {
+		return _adaptorClass;
+	}
+	public void setAdaptorClass(String adaptorClass) {
+		_adaptorClass = adaptorClass;
+	}
 	public String url() {
 		return _url;
 	}
@@ -42,7 +49,7 @@ public class DbConnectionInfo {
 	
 	@Override
 	public String toString() {
-		return "{driverClass=" + _driverClass + "; username=" + _username + "; password=******" + "; url=" + _url + "}"; 
+		return "{driverClass=" + _driverClass + "; adaptorClass=" + _adaptorClass + "; username=" + _username + "; password=******" + "; url=" + _url + "}"; 
 	}
 
 }
@@ -4,7 +4,12 @@ import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
 import java.util.WeakHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicReference;
 
 import rdbms.DbOperation.DatabaseOperationCallback;
 import rdbms.util.DbLogger;
@@ -29,6 +34,10 @@ public class DbContext implements DatabaseOperationCallback {
 	Map<DbModel, DbQuery> _queryProcessors = MapUtils.map();
 	Map<DbModel, DbUpdater> _updateProcessors = MapUtils.map();
 	DbContextGroup _contextGroup;
+	final Queue<PendingEviction> _pendingEvictions = new ConcurrentLinkedQueue<PendingEviction>();
+	final AtomicReference<Thread> _owner = new AtomicReference<Thread>();
+	boolean _tracksChanges = false;
+	DbUpdater.OperationOrder _operationOrder = DbUpdater.OperationOrder.Registration;
 	
 	protected DbContext() {
 		Map<String, DbModel> models = DbModelGroup.models();
@@ -66,6 +75,90 @@ public class DbContext implements DatabaseOperationCallback {
 	public static void bindContext(DbContext context) {
 		bind(context);
 	}
+	
+	/*
+	 * A DbContext is not thread safe. runWith and callWith fail fast when another thread is running a task with the same context,
+	 * so tasks propagated with wrap() or propagating() must not overlap.
+	 */
+	public static void runWith(DbContext context, Runnable task) {
+		boolean entered = context.enter();
+		DbContext previous = peek();
+		bind(context);
+		try {
+			task.run();
+		} finally {
+			bind(previous);
+			context.exit(entered);
+		}
+	}
+	
+	public static <T> T callWith(DbContext context, Callable<T> task) throws Exception {
+		boolean entered = context.enter();
+		DbContext previous = peek();
+		bind(context);
+		try {
+			return task.call();
+		} finally {
+			bind(previous);
+			context.exit(entered);
+		}
+	}
+	
+	private boolean enter() {
+		Thread current = Thread.currentThread();
+		if(_owner.compareAndSet(null, current))
+			return true;
+		Thread owner = _owner.get();
+		if(owner == current)
+			return false;
+		throw new IllegalStateException("DbContext is in use by thread '" + (owner != null ? owner.getName() : null) + "'. A DbContext must not be shared by concurrent tasks");
+	}
+	
+	private void exit(boolean entered) {
+		if(entered)
+			_owner.set(null);
+	}
+	
+	public static Runnable wrap(final Runnable task) {
+		final DbContext context = peek();
+		if(context == null)
+			return task;
+		return new Runnable() {
+			public void run() {
+				runWith(context, task);
+			}
+		};
+	}
+	
+	public static <T> Callable<T> wrap(final Callable<T> task) {
+		final DbContext context = peek();
+		if(context == null)
+			return task;
+		return new Callable<T>() {
+			public T call() throws Exception {
+				return callWith(context, task);
+			}
+		};
+	}
+	
+	public static ExecutorService propagating(ExecutorService executor) {
+		return new DbContextExecutorService(executor);
+	}
+	public boolean tracksChanges() {
+		return _tracksChanges;
+	}
+	public void setTracksChanges(boolean flag) {
+		_tracksChanges = flag;
+	}
+	public DbUpdater.OperationOrder operationOrder() {
+		return _operationOrder;
+	}
+	public void setOperationOrder(DbUpdater.OperationOrder order) {
+		_operationOrder = order;
+		for(DbUpdater tx : _updateProcessors.values()) {
+			tx.setOperationOrder(order);
+		}
+	}
 	public <T> T create(Class<T> aClass) {
 		T o = (T)ClassUtils.newInstance(aClass);
 		Assert.that(o != null,  "Unable to create instance of class: " + aClass.getName());
@@ -121,11 +214,13 @@ public class DbContext implements DatabaseOperationCallback {
 		if(tx == null) {
 			DbSession session = sessionForModel(model);
 			tx = new DbUpdater(session);
+			tx.setOperationOrder(_operationOrder);
 			_updateProcessors.put(model, tx);
 		}
 		return tx;
 	}
 	public List<?> executeQuery(DbQuerySpecification spec) {
+		applyPendingEvictions();
 		DbEntity entity = spec.entity();
 		if(entity == null)
 			entity = entityForClass(spec.entityClass());
@@ -138,6 +233,90 @@ public class DbContext implements DatabaseOperationCallback {
 		DbQuerySpecification spec = new DbQuerySpecification(entity, predicate);
 		return executeQuery(spec);
 	}
+	public int updateWhere(DbQuerySpecification spec, Map<String, Object> values) throws Exception {
+		if(values == null || values.isEmpty())
+			return 0;
+		return executeWhere(spec, values);
+	}
+	public int deleteWhere(DbQuerySpecification spec) throws Exception {
+		return executeWhere(spec, null);
+	}
+	private int executeWhere(DbQuerySpecification spec, Map<String, Object> values) throws Exception {
+		applyPendingEvictions();
+		DbEntity entity = spec.entity();
+		if(entity == null)
+			entity = entityForClass(spec.entityClass());
+		DbUpdater tx = updateProcessorForEntity(entity);
+		DbSession session = tx.session();
+		session.establishConnection();
+		
+		List<DbSQLCommand> commands = ListUtils.list();
+		List<DbPredicate> predicates = ListUtils.list();
+		List<DbEntity> entities = ListUtils.list();
+		List<String> unrestrictedTables = ListUtils.list();
+		for(DbEntity ent : entity.concreteEntities()) {
+			if(unrestrictedTables.contains(ent.tableName()))
+				continue;
+			DbPredicate predicate = ent.predicateWithInheritance(spec.predicate());
+			if(predicate == spec.predicate())
+				unrestrictedTables.add(ent.tableName());
+			commands.add(values != null ? ent.createUpdateCommand(predicate, values) : ent.createDeleteCommand(predicate));
+			predicates.add(predicate);
+			entities.add(ent);
+		}
+		
+		boolean ownsTransaction = !tx.isActive() && !tx.isAutoCommit();
+		if(ownsTransaction)
+			session.beginTransaction();
+		int count = 0;
+		try {
+			for(DbSQLCommand command : commands) {
+				DbLogger.rdbms_command.debug(command.sql());
+				count += session.executeUpdate(command);
+			}
+			if(ownsTransaction)
+				session.commitTransaction();
+		} catch (Exception e) {
+			if(ownsTransaction)
+				session.rollbackTransaction();
+			throw e;
+		}
+		
+		for(int i = 0, size = entities.size(); i < size; i++) {
+			forgetSnapshotsMatching(entities.get(i), predicates.get(i));
+		}
+		return count;
+	}
+	private void forgetSnapshotsMatching(DbEntity entity, DbPredicate predicate) {
+		sessionForEntity(entity).forgetSnapshotsMatching(entity, predicate);
+		if(_contextGroup == null)
+			return;
+		PendingEviction eviction = new PendingEviction(entity, predicate);
+		synchronized(_ContextGroups) {
+			Iterator<DbContext> iter = _contextGroup.memberIterator();
+			while(iter.hasNext()) {
+				DbContext member = iter.next();
+				if(member != null && member != this)
+					member._pendingEvictions.add(eviction);
+			}
+		}
+	}
+	private void applyPendingEvictions() {
+		PendingEviction eviction;
+		while((eviction = _pendingEvictions.poll()) != null) {
+			sessionForEntity(eviction._entity).forgetSnapshotsMatching(eviction._entity, eviction._predicate);
+		}
+	}
+	
+	static class PendingEviction {
+		final DbEntity _entity;
+		final DbPredicate _predicate;
+		
+		PendingEviction(DbEntity entity, DbPredicate predicate) {
+			_entity = entity;
+			_predicate = predicate;
+		}
+	}
 	public Object findOne(DbQuerySpecification spec) {
 		List<?> results = this.executeQuery(spec);
 		if(!ListUtils.nullOrEmpty(results))
@@ -152,12 +331,14 @@ public class DbContext implements DatabaseOperationCallback {
 	}
 	
 	public Object find(Class<?> entityClass, Object primaryKey) {
+		applyPendingEvictions();
 		DbEntity entity = entityForClass(entityClass);
 		DbQuery query = queryProcessorForEntity(entity);
 		return query.find(entityClass, primaryKey, this);
 	}
 	
 	public Object storedValueForToOneRelationship(Object owner, String key) {
+		applyPendingEvictions();
 		DbEntity entity = entityForObject(owner);
 		DbQuery query = queryProcessorForEntity(entity);
 		return query.storedValueForToOneRelationship(owner, key, this);
@@ -172,9 +353,16 @@ public class DbContext implements DatabaseOperationCallback {
 		return entityForClass(entityClass);
 	}
 	public void saveChanges() throws Exception {
+		applyPendingEvictions();
 		for(DbUpdater tx : _updateProcessors.values()) {
 			tx.session().establishConnection();
-			if(!tx.hasChanges())	continue;
+			if(_tracksChanges)
+				detectChanges(tx);
+			if(!tx.hasChanges()) {
+				if(tx.isActive())
+					tx.commit();
+				continue;
+			}
 			tx.begin();
 			try {
 				tx.executeDatabaseOperations(this);
@@ -182,6 +370,9 @@ public class DbContext implements DatabaseOperationCallback {
 			} catch (DbValidationException invalid) {
 				tx.rollback();
 				throw invalid;
+			} catch (DbOptimisticLockException conflict) {
+				tx.rollback();
+				throw conflict;
 			} catch (IllegalStateException e) {
 				tx.rollback();
 				throw e;
@@ -189,6 +380,27 @@ public class DbContext implements DatabaseOperationCallback {
 			tx.session().disconnect();
 		}
 	}
+	public void detectChanges() {
+		applyPendingEvictions();
+		for(DbUpdater tx : _updateProcessors.values()) {
+			detectChanges(tx);
+		}
+	}
+	private void detectChanges(DbUpdater tx) {
+		DbSession session = tx.session();
+		int count = 0;
+		for(Map.Entry<DbEntityID, Object> entry : session.trackedObjects().entrySet()) {
+			Object object = entry.getValue();
+			if(tx.isRegistered(object))
+				continue;
+			if(session.hasChanged(entry.getKey(), object)) {
+				tx.update(object, this);
+				count++;
+			}
+		}
+		if(count > 0)
+			DbLogger.rdbms_snapshot.debug("[SNAPSHOT] Detected " + count + " changed objects in " + session.trackedObjects().size() + " tracked objects");
+	}
 	public DbEntityID entityIDForObject(Object object) {
 		DbEntity entity = entityForObject(object);
 		if(entity != null) {
@@ -198,6 +410,7 @@ public class DbContext implements DatabaseOperationCallback {
 		return null;
 	}
 	public Object cachedObject(Class<?> entityClass, Object primaryKey) {
+		applyPendingEvictions();
 		DbEntity entity = entityForClass(entityClass);
 		Object object = sessionForEntity(entity).cachedObject(entity, primaryKey);
 		if(object == null)
@@ -223,11 +436,13 @@ public class DbContext implements DatabaseOperationCallback {
 		return find(object.getClass(), entityId.entity().primaryKeyForObject(object));
 	}
 	public Object objectFromCache(DbEntityID entityId) {
+		applyPendingEvictions();
 		DbEntity entity = entityId.entity();
 		DbSession session = sessionForEntity(entity);
 		return session.cachedObject(entityId);
 	}
 	public Object objectFromSnapshot(DbEntityID entityId) throws Exception {
+		applyPendingEvictions();
 		DbEntity entity = entityId.entity();
 		Map<String, Object> snapshot = sessionForEntity(entity).snapshotForEntityID(entityId);
 		Object object = ClassUtils.newInstance(entity.entityClass());
@@ -240,6 +455,10 @@ public class DbContext implements DatabaseOperationCallback {
 		super.finalize();
 	}
 	
+	public void close() {
+		closeSessions();
+	}
+	
 	private void closeSessions() {
 		for(DbSession session : _dbSessions.values()) {
 			session.disconnect();
@@ -404,6 +623,10 @@ public class DbContext implements DatabaseOperationCallback {
 	public void setDelegate(Object delegateObject) {
 		_delegate.setDelegate(delegateObject);
 	}
+	
+	boolean delegateRespondsTo(String methodName) {
+		return _delegate.respondsTo(methodName);
+	}
 
 	public static void bindNewContext(String groupName) {
 		bindContext(createContext(), groupName);
@@ -0,0 +1,40 @@
+package rdbms;
+
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+public class DbContextExecutorService extends AbstractExecutorService {
+
+	private final ExecutorService _executor;
+	
+	public DbContextExecutorService(ExecutorService executor) {
+		_executor = executor;
+	}
+	
+	public void execute(Runnable command) {
+		_executor.execute(DbContext.wrap(command));
+	}
+
+	public void shutdown() {
+		_executor.shutdown();
+	}
+
+	public List<Runnable> shutdownNow() {
+		return _executor.shutdownNow();
+	}
+
+	public boolean isShutdown() {
+		return _executor.isShutdown();
+	}
+
+	public boolean isTerminated() {
+		return _executor.isTerminated();
+	}
+
+	public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+		return _executor.awaitTermination(timeout, unit);
+	}
+
+}
@@ -9,7 +9,6 @@ import java.util.List;
 import java.util.Map;
 
 import rdbms.util.DbLogger;
-import core.util.Accessor;
 import core.util.FieldAccess;
 import core.util.ListUtils;
 import core.util.MapUtils;
@@ -41,10 +40,16 @@ public class DbEntity {
 	DbPrimaryKeyGenerator _pkGenerator;
 	LockingStrategy _lockingStrategy = LockingStrategy.Optimistic;
 	CacheStrategy _cacheStrategy = CacheStrategy.Normal;
+	long _slowQueryThreshold = -1L;
 	List<String> _lockKeys;
 	List<String> _lockColumnNames;
 	DbInheritance _inheritance;
 	boolean _compositePrimaryKey;
+	DbPropertyAccessor[] _accessors;
+	List<DbField> _primaryKeyFields;
+	DbEntityMapper _mapper;
+	DbField _versionField;
+	boolean _versionFieldResolved;
 	
 	public DbEntity(DbModel model, Class<?> entityClass, String entityName, String tableName, DbField[] fields) {
 		this._entityClass = entityClass;
@@ -69,11 +74,11 @@ public class DbEntity {
 	}
 	public Object primaryKeyForObject(Object object) {
 		List<DbField> pkFields = primaryKeyFields();
-		List<String> keys = ListUtils.list();
-		List<Object> values = ListUtils.list();
+		List<String> keys = ListUtils.list(pkFields.size());
+		List<Object> values = ListUtils.list(pkFields.size());
 		for(DbField field : pkFields) {
 			keys.add(field.key());
-			values.add(FieldAccess.Util.getValueForKey(object, field.key()));
+			values.add(field.accessor().getValue(object));
 		}
 		DbRowID rowId = new DbRowID(keys, values);
 		/*
@@ -86,10 +91,16 @@ public class DbEntity {
 	}
 	
 	public void setPrimaryKeyForObject(Object pk, Object object) {
+		if(!(pk instanceof DbRowID)) {
+			DbField pkField = primaryKeyField();
+			if(pkField != null)
+				pkField.accessor().setValue(object, pkField.coerceValue(pk));
+			return;
+		}
 		DbRowID rowId = (DbRowID) pk;
 		Map<String, Object> ids = rowId.ids();
 		for(String key : ids.keySet()) {
-			FieldAccess.Util.setValueForKey(object, ids.get(key), key);
+			setValueForKey(object, ids.get(key), key);
 		}
 		/*
 		DbField pkField = primaryKeyField();
@@ -126,6 +137,14 @@ public class DbEntity {
 		return _cacheStrategy;
 	}
 	
+	public long slowQueryThreshold() {
+		return _slowQueryThreshold >= 0 ? _slowQueryThreshold : _model.slowQueryThreshold();
+	}
+	
+	public void setSlowQueryThreshold(long millis) {
+		_slowQueryThreshold = millis;
+	}
+	
 
 	public DbField primaryKeyField() {
 		for(DbField field : fields()) {
@@ -135,12 +154,79 @@ public class DbEntity {
 		return null;
 	}
 	public List<DbField> primaryKeyFields() {
-		List<DbField> list = ListUtils.list();
-		for(DbField field : fields()) {
-			if(field._isPrimaryKey)
-				list.add(field);
+		if(_primaryKeyFields == null) {
+			List<DbField> list = ListUtils.list();
+			for(DbField field : fields()) {
+				if(field._isPrimaryKey)
+					list.add(field);
+			}
+			_primaryKeyFields = list;
+		}
+		return _primaryKeyFields;
+	}
+	
+	public DbField versionField() {
+		if(!_versionFieldResolved) {
+			for(DbField field : fields()) {
+				if(field.isVersion()) {
+					_versionField = field;
+					break;
+				}
+			}
+			_versionFieldResolved = true;
 		}
-		return list;
+		return _versionField;
+	}
+	
+	public void prepare() {
+		DbField[] fields = fields();
+		DbPropertyAccessor[] accessors = new DbPropertyAccessor[fields.length];
+		for(int i = 0; i < fields.length; i++) {
+			DbField field = fields[i];
+			accessors[i] = new DbPropertyAccessor(_entityClass, field.key(), field.valueClass());
+			if(!accessors[i].isSettable())
+				DbLogger.rdbms.warn("Instance of entity '" + _entityName + "' does not have property '" + field.key() + "'");
+			field._accessor = accessors[i];
+			field._coercion = DbCoercion.forValueClass(field.valueClass(), field.dateFormat());
+		}
+		if(_relationships != null) {
+			for(DbRelationship relationship : _relationships) {
+				relationship._accessor = new DbPropertyAccessor(_entityClass, relationship.key(), null);
+			}
+		}
+		_primaryKeyFields = null;
+		_versionFieldResolved = false;
+		_accessors = accessors;
+	}
+	
+	public DbPropertyAccessor[] accessors() {
+		if(_accessors == null)
+			prepare();
+		return _accessors;
+	}
+	
+	public Object valueForKey(Object object, String key) {
+		DbField field = fieldNamed(key);
+		if(field != null)
+			return field.accessor().getValue(object);
+		DbRelationship relationship = relationshipNamed(key);
+		if(relationship != null)
+			return relationship.accessor().getValue(object);
+		return FieldAccess.Util.getValueForKey(object, key);
+	}
+	
+	public void setValueForKey(Object object, Object value, String key) {
+		DbField field = fieldNamed(key);
+		if(field != null) {
+			field.accessor().setValue(object, value);
+			return;
+		}
+		DbRelationship relationship = relationshipNamed(key);
+		if(relationship != null) {
+			relationship.accessor().setValue(object, value);
+			return;
+		}
+		FieldAccess.Util.setValueForKey(object, value, key);
 	}
 	
 	public DbField fieldNamed(String fieldName) {
@@ -160,6 +246,8 @@ public class DbEntity {
 	}
 	
 	public DbRelationship relationshipNamed(String key) {
+		if(relationships() == null)
+			return null;
 		for(DbRelationship join : relationships()) {
 			if(join._key.equals(key))
 				return join;
@@ -189,17 +277,44 @@ public class DbEntity {
 		return subs;
 	}
 	
+	public boolean isKindOfEntity(DbEntity entity) {
+		for(DbEntity e = this; e != null; e = e.parentEntity()) {
+			if(e == entity)
+				return true;
+		}
+		return false;
+	}
+	
+	public DbEntityMapper mapper() {
+		return _mapper;
+	}
+	public void setMapper(DbEntityMapper mapper) {
+		_mapper = mapper;
+	}
+	
+	public Object newInstance() throws Exception {
+		if(_mapper != null)
+			return _mapper.newInstance();
+		return _entityClass.newInstance();
+	}
+	
 	public void initObject(Object object, Map<String, Object> row, DbContext context) throws Exception {
-		for(DbField field : fields()) {
-			String columnName = field.columnName();
-			String key = field.key();
-			Object value = row.get(columnName);
-			if(Accessor.newSetAccessor(object.getClass(), key) == null) {
-				DbLogger.rdbms.warn("Instance of entity '" + field.entity().entityName() + "' does not have property '" + key + "'");
+		if(_mapper != null && _entityClass.equals(object.getClass())) {
+			_mapper.initObject(object, row);
+			context.didFetch(object);
+			return;
+		}
+		DbPropertyAccessor[] accessors = accessors();
+		DbField[] fields = fields();
+		for(int i = 0; i < fields.length; i++) {
+			DbField field = fields[i];
+			DbPropertyAccessor accessor = accessors[i];
+			if(!accessor.isSettable())
 				continue;
-			}
+			String key = field.key();
+			Object value = row.get(field.columnName());
 			try {
-				FieldAccess.Util.setValueForKey(object, field.coerceValue(value), key);
+				accessor.setValue(object, field.coerceValue(value));
 			} catch (Exception e) {
 				DbLogger.rdbms.error("DbEntity.initObject(): could not set value '" + value + "' to field '" + key + "'.\n value is " + 
 			(value != null ? value.getClass().getName() : "null") + " expected value is " + field.valueClass().getName(), e);
@@ -268,44 +383,71 @@ public class DbEntity {
 		return descendants;
 	}
 
+	public List<DbEntity> concreteEntities() {
+		List<DbEntity> entities = new ArrayList<DbEntity>();
+		if(!isAbstractClass())
+			entities.add(this);
+		for(DbEntity descendant : concreteDescendantEntities()) {
+			if(!entities.contains(descendant))
+				entities.add(descendant);
+		}
+		return entities;
+	}
+
 	public DbPredicate additionalPredicateForInheritance() {
 		return _inheritance.predicate();
 	}
+	
+	public DbPredicate predicateWithInheritance(DbPredicate predicate) {
+		DbPredicate additionalPredicate = _inheritance != null ? _inheritance.predicate() : null;
+		if(additionalPredicate == null)
+			return predicate;
+		if(predicate == null)
+			return additionalPredicate;
+		List<DbPredicate> ps = ListUtils.list();
+		ps.add(additionalPredicate);
+		if(predicate instanceof DbPredicate.And) {
+			ps.addAll(((DbPredicate.And) predicate).predicates());
+		} else {
+			ps.add(predicate);
+		}
+		return new DbPredicate.And(ps);
+	}
 
 	public DbSQLCommand createUpdateCommand(Object object, DbContext context) {
-		List<String> columnNames = ListUtils.list();
-		List<String> values = ListUtils.list();
-		
+		return createUpdateCommand(object, null, context);
+	}
+
+	public DbSQLCommand createUpdateCommand(Object object, Map<String, Object> snapshot, DbContext context) {
+		List<String> assignments = ListUtils.list();
 		Map<String, Object> row = MapUtils.map();
-		for(DbField field : _fields) {
-			if(field.isPrimaryKey())	continue;
-			columnNames.add(field.columnName());
-			Object val = FieldAccess.Util.getValueForKey(object, field.key());
-			row.put(field.columnName(), val);
-			values.add(stringValue(val));
+		if(snapshot != null)
+			row.putAll(snapshot);
+		DbPropertyAccessor[] accessors = accessors();
+		DbField versionField = versionField();
+		for(int i = 0; i < _fields.length; i++) {
+			DbField field = _fields[i];
+			if(field.isPrimaryKey() || field == versionField)	continue;
+			String columnName = field.columnName();
+			Object val = accessors[i].getValue(object);
+			if(snapshot != null && snapshot.containsKey(columnName) && field.isEqualValue(snapshot.get(columnName), val))
+				continue;
+			row.put(columnName, val);
+			assignments.add(columnName + "=" + stringValue(val));
+		}
+		if(assignments.isEmpty())
+			return null;
+		if(versionField != null) {
+			String columnName = versionField.columnName();
+			assignments.add(columnName + "=" + columnName + "+1");
+			row.put(columnName, versionField.nextVersion(expectedVersion(object, snapshot)));
 		}
 		
 		StringBuffer sql = new StringBuffer();
 		sql.append("UPDATE " + this._tableName + " SET ");
-		boolean start = true;
-		for(int i = 0, size = columnNames.size(); i < size; i++) {
-			if(start)	start = false;
-			else		sql.append(",");
-			String cn = columnNames.get(i);
-			String val = values.get(i);
-			sql.append(cn + "=" + val);
-		}
+		sql.append(ListUtils.listToString(assignments, ","));
 		sql.append(" WHERE ");
-		if(lockingStrategy() == DbEntity.LockingStrategy.Optimistic) {
-			List<String> locks = ListUtils.list();
-			locks.add(primaryKeyField().columnName() + "=" + stringValue(primaryKeyForObject(object)));
-			for(int i = 0, size = lockKeys().size(); i < size; i++) {
-				locks.add(_lockColumnNames.get(i) + "=" + stringValue(FieldAccess.Util.getValueForKey(object, _lockKeys.get(i))));
-			}
-			sql.append(ListUtils.listToString(locks, " AND "));
-		} else {
-			sql.append(primaryKeyField().columnName() + "=" + stringValue(primaryKeyForObject(object)));
-		}
+		sql.append(qualifierForObject(object, snapshot));
 		DbSQLCommand command = new DbSQLCommand(this, sql.toString());
 		command.setRow(row);
 		return command;
@@ -314,57 +456,183 @@ public class DbEntity {
 	public DbSQLCommand createDeleteCommand(Object object, DbContext context) {
 		StringBuffer sql = new StringBuffer();
 		sql.append("DELETE FROM " + this.tableName() + " WHERE ");
-		if(lockingStrategy() == DbEntity.LockingStrategy.Optimistic) {
-			List<String> locks = ListUtils.list();
-			locks.add(primaryKeyField().columnName() + "=" + stringValue(primaryKeyForObject(object)));
-			for(int i = 0, size = lockKeys().size(); i < size; i++) {
-				locks.add(_lockColumnNames.get(i) + "=" + stringValue(FieldAccess.Util.getValueForKey(object, _lockKeys.get(i))));
-			}
-			sql.append(ListUtils.listToString(locks, " AND "));
-		} else {
-			sql.append(primaryKeyField().columnName() + "=" + stringValue(primaryKeyForObject(object)));
-		}
+		sql.append(qualifierForObject(object, null));
 		DbSQLCommand command = new DbSQLCommand(this, sql.toString());
 		return command;
 	}
-
-	public DbSQLCommand createInsertCommand(Object object, DbContext context) {
-		List<String> columnNames = ListUtils.list();
-		List<String> values = ListUtils.list();
-		Map<String, Object> row = MapUtils.map();
-		for(DbField field : _fields) {
-			if(field.isReadOnly())	continue;
+	
+	public DbSQLCommand createDeleteCommand(DbPredicate predicate) {
+		StringBuffer sql = new StringBuffer();
+		sql.append("DELETE FROM " + this.tableName());
+		if(predicate != null)
+			sql.append(" WHERE " + predicate.generateString(this));
+		return new DbSQLCommand(this, sql.toString());
+	}
+	
+	public DbSQLCommand createUpdateCommand(DbPredicate predicate, Map<String, Object> values) {
+		List<String> assignments = ListUtils.list();
+		for(Map.Entry<String, Object> entry : values.entrySet()) {
+			DbField field = fieldNamed(entry.getKey());
+			if(field == null)
+				throw new IllegalStateException("Entity '" + _entityName + "' does not have field '" + entry.getKey() + "'");
+			assignments.add(field.columnName() + "=" + stringValue(field.coerceValue(entry.getValue())));
+		}
+		DbField versionField = versionField();
+		if(versionField != null && !values.containsKey(versionField.key())) {
+			String columnName = versionField.columnName();
+			assignments.add(columnName + "=" + columnName + "+1");
+		}
+		StringBuffer sql = new StringBuffer();
+		sql.append("UPDATE " + this._tableName + " SET ");
+		sql.append(ListUtils.listToString(assignments, ","));
+		if(predicate != null)
+			sql.append(" WHERE " + predicate.generateString(this));
+		return new DbSQLCommand(this, sql.toString());
+	}
+	
+	public String primaryKeyQualifierForObject(Object object) {
+		List<String> qualifiers = ListUtils.list();
+		DbPropertyAccessor[] accessors = accessors();
+		for(int i = 0; i < _fields.length; i++) {
+			if(_fields[i].isPrimaryKey())
+				qualifiers.add(_fields[i].columnName() + "=" + stringValue(accessors[i].getValue(object)));
+		}
+		return ListUtils.listToString(qualifiers, " AND ");
+	}
+	
+	public String primaryKeyQualifierForRowID(DbRowID rowId) {
+		List<String> qualifiers = ListUtils.list();
+		for(DbField field : primaryKeyFields()) {
+			qualifiers.add(field.columnName() + "=" + stringValue(field.coerceValue(rowId.ids().get(field.key()))));
+		}
+		return ListUtils.listToString(qualifiers, " AND ");
+	}
+	
+	public boolean checksVersion() {
+		return lockingStrategy() == DbEntity.LockingStrategy.Optimistic && versionField() != null;
+	}
+	
+	public Object expectedVersion(Object object, Map<String, Object> snapshot) {
+		DbField versionField = versionField();
+		if(versionField == null)
+			return null;
+		if(snapshot != null && snapshot.containsKey(versionField.columnName()))
+			return versionField.coerceValue(snapshot.get(versionField.columnName()));
+		return versionField.accessor().getValue(object);
+	}
+	
+	private String qualifierForObject(Object object, Map<String, Object> snapshot) {
+		if(lockingStrategy() != DbEntity.LockingStrategy.Optimistic)
+			return primaryKeyQualifierForObject(object);
+		List<String> qualifiers = ListUtils.list();
+		qualifiers.add(primaryKeyQualifierForObject(object));
+		DbField versionField = versionField();
+		if(versionField != null) {
+			Object version = expectedVersion(object, snapshot);
+			qualifiers.add(version == null ? versionField.columnName() + " IS NULL" : versionField.columnName() + "=" + stringValue(version));
+		}
+		DbPropertyAccessor[] accessors = accessors();
+		for(int i = 0; i < _fields.length; i++) {
+			DbField field = _fields[i];
+			if(!field.isLockKey() || field.isPrimaryKey() || field == versionField)
+				continue;
 			String columnName = field.columnName();
-			Object val = FieldAccess.Util.getValueForKey(object, field.key());
-			row.put(columnName, val);
-			String value = stringValue(val);
-			if(value != null) {
-				columnNames.add(columnName);
-				values.add(value);
-			}
+			Object val = snapshot != null && snapshot.containsKey(columnName) ? field.coerceValue(snapshot.get(columnName)) : accessors[i].getValue(object);
+			qualifiers.add(val == null ? columnName + " IS NULL" : columnName + "=" + stringValue(val));
 		}
-		
+		return ListUtils.listToString(qualifiers, " AND ");
+	}
+
+	public boolean hasDatabaseGeneratedKey() {
+		return _pkGenerator != null && _pkGenerator.isDatabaseGenerated();
+	}
+	
+	private boolean isInsertField(DbField field) {
+		if(field.isReadOnly())
+			return false;
+		return !(field.isPrimaryKey() && hasDatabaseGeneratedKey());
+	}
+	
+	private String insertValues(Object object, Map<String, Object> row) {
+		StringBuffer values = new StringBuffer();
+		DbPropertyAccessor[] accessors = accessors();
+		boolean start = true;
+		for(int i = 0; i < _fields.length; i++) {
+			DbField field = _fields[i];
+			if(!isInsertField(field))	continue;
+			Object val = accessors[i].getValue(object);
+			row.put(field.columnName(), val);
+			if(start)	start = false;
+			else		values.append(",");
+			values.append(stringValue(val));
+		}
+		return values.toString();
+	}
+	
+	private StringBuffer insertStatementPrefix() {
 		StringBuffer sql = new StringBuffer();
 		sql.append("INSERT INTO " + tableName() + " (");
 		boolean start = true;
-		for(String cn : columnNames) {
+		for(DbField field : _fields) {
+			if(!isInsertField(field))	continue;
 			if(start)	start = false;
 			else		sql.append(",");
-			sql.append(cn);
+			sql.append(field.columnName());
 		}
-		sql.append(") values (");
-		start = false;
-		for(String val : values) {
-			if(start)	start = false;
-			else		sql.append(",");
-			sql.append(val);
+		sql.append(") values ");
+		return sql;
+	}
+	
+	public DbSQLCommand createInsertCommand(Object object, DbContext context) {
+		Map<String, Object> row = MapUtils.map();
+		StringBuffer sql = insertStatementPrefix();
+		sql.append("(" + insertValues(object, row) + ")");
+		DbSQLCommand command = new DbSQLCommand(this, sql.toString());
+		command.setRow(row);
+		return command;
+	}
+	
+	public DbSQLCommand createInsertBatchCommand(List<?> objects, DbContext context) {
+		List<Map<String, Object>> rows = ListUtils.list(objects.size());
+		List<Object[]> parameterRows = ListUtils.list(objects.size());
+		DbPropertyAccessor[] accessors = accessors();
+		StringBuffer sql = insertStatementPrefix();
+		int count = 0;
+		for(DbField field : _fields) {
+			if(!isInsertField(field))	continue;
+			sql.append(count++ == 0 ? "(?" : ",?");
 		}
 		sql.append(")");
+		for(Object object : objects) {
+			Map<String, Object> row = MapUtils.map();
+			Object parameters[] = new Object[count];
+			for(int i = 0, p = 0; i < _fields.length; i++) {
+				DbField field = _fields[i];
+				if(!isInsertField(field))	continue;
+				Object val = accessors[i].getValue(object);
+				row.put(field.columnName(), val);
+				parameters[p++] = val;
+			}
+			rows.add(row);
+			parameterRows.add(parameters);
+		}
 		DbSQLCommand command = new DbSQLCommand(this, sql.toString());
-		command.setRow(row);
+		command.setRows(rows);
+		command.setParameterRows(parameterRows);
+		if(rows.size() > 0)
+			command.setRow(rows.get(0));
 		return command;
 	}
 	
+	public String[] primaryKeyColumnNames() {
+		List<DbField> pkFields = primaryKeyFields();
+		String names[] = new String[pkFields.size()];
+		for(int i = 0; i < names.length; i++) {
+			names[i] = pkFields.get(i).columnName();
+		}
+		return names;
+	}
+	
 	private static DateFormat DATE_FORMAT = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
 
 	private String stringValue(Object value) {
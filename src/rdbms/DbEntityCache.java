@@ -1,10 +1,13 @@
 package rdbms;
 
 import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
 import rdbms.util.DbLogger;
+import core.util.ListUtils;
 import core.util.MapUtils;
 
 public class DbEntityCache {
@@ -31,6 +34,7 @@ public class DbEntityCache {
 		if(entityId.entity().cacheStrategy() == DbEntity.CacheStrategy.None)
 			return object;
 		
+		long start = DbEvents.start();
 		Object obj = null;
 		
 		synchronized(_cache) {
@@ -46,6 +50,7 @@ public class DbEntityCache {
 				obj =  object;
 			}
 		}
+		DbEvents.cacheAdd(entityId, start);
 		
 		return obj;
 	}
@@ -62,6 +67,7 @@ public class DbEntityCache {
 		if(entityId.entity().cacheStrategy() == DbEntity.CacheStrategy.None)
 			return null;
 		
+		long start = DbEvents.start();
 		Object object = null;
 		
 		synchronized(_cache) {
@@ -73,6 +79,7 @@ public class DbEntityCache {
 				_cache.remove(entityId);
 			}
 		}
+		DbEvents.cacheGet(entityId, object != null, start);
 		
 		return object;
 	}
@@ -94,6 +101,36 @@ public class DbEntityCache {
 		}
 	}
 	
+	public List<Object> objectsMatching(DbEntity entity, DbPredicate predicate) {
+		List<Object> objects = ListUtils.list();
+		synchronized(_cache) {
+			for(Map.Entry<DbEntityID, CachedRecord> entry : _cache.entrySet()) {
+				if(entry.getKey().entity().isKindOfEntity(entity) && (predicate == null || predicate.matches(entry.getValue()._object)))
+					objects.add(entry.getValue()._object);
+			}
+		}
+		return objects;
+	}
+	
+	public int removeMatching(DbEntity entity, DbPredicate predicate) {
+		int count = 0;
+		synchronized(_cache) {
+			Iterator<Map.Entry<DbEntityID, CachedRecord>> iter = _cache.entrySet().iterator();
+			while(iter.hasNext()) {
+				Map.Entry<DbEntityID, CachedRecord> entry = iter.next();
+				if(!entry.getKey().entity().isKindOfEntity(entity))
+					continue;
+				if(predicate == null || predicate.matches(entry.getValue()._object)) {
+					iter.remove();
+					count++;
+				}
+			}
+		}
+		if(count > 0)
+			DbLogger.rdbms_cache.debug("[CACHE] Removed " + count + " objects of " + entity.entityName() + " from cache");
+		return count;
+	}
+	
 	public void clear() {
 		synchronized(_cache) {
 			DbLogger.rdbms_cache.debug("[CACHE] Cleared cache");
@@ -0,0 +1,10 @@
+package rdbms;
+
+import java.util.Map;
+
+public interface DbEntityMapper {
+
+	public Object newInstance() throws Exception;
+	public void initObject(Object object, Map<String, Object> row) throws Exception;
+
+}
@@ -0,0 +1,20 @@
+package rdbms;
+
+public interface DbEventListener {
+
+	public void queryExecuted(DbEntity entity, String sql, int rows, long nanos);
+	public void saveExecuted(int operations, long statements, long nanos);
+	public void faultLoaded(DbRelationship relationship, int rows, long nanos);
+	public void toOneLoaded(DbRelationship relationship, boolean found, long nanos);
+	public void cacheGet(DbEntityID entityId, boolean hit, long nanos);
+	public void cacheAdd(DbEntityID entityId, long nanos);
+	
+	public static class Adapter implements DbEventListener {
+		public void queryExecuted(DbEntity entity, String sql, int rows, long nanos) {}
+		public void saveExecuted(int operations, long statements, long nanos) {}
+		public void faultLoaded(DbRelationship relationship, int rows, long nanos) {}
+		public void toOneLoaded(DbRelationship relationship, boolean found, long nanos) {}
+		public void cacheGet(DbEntityID entityId, boolean hit, long nanos) {}
+		public void cacheAdd(DbEntityID entityId, long nanos) {}
+	}
+}
@@ -0,0 +1,125 @@
+package rdbms;
+
+import rdbms.util.DbLogger;
+
+public class DbEvents {
+
+	private static final DbEventListener[] NoListeners = new DbEventListener[0];
+	private static volatile DbEventListener[] _listeners = NoListeners;
+	
+	public static synchronized void addListener(DbEventListener listener) {
+		DbEventListener listeners[] = new DbEventListener[_listeners.length + 1];
+		System.arraycopy(_listeners, 0, listeners, 0, _listeners.length);
+		listeners[_listeners.length] = listener;
+		_listeners = listeners;
+	}
+	
+	public static synchronized void removeListener(DbEventListener listener) {
+		DbEventListener current[] = _listeners;
+		for(int i = 0; i < current.length; i++) {
+			if(current[i] == listener) {
+				DbEventListener listeners[] = new DbEventListener[current.length - 1];
+				System.arraycopy(current, 0, listeners, 0, i);
+				System.arraycopy(current, i + 1, listeners, i, current.length - i - 1);
+				_listeners = listeners.length > 0 ? listeners : NoListeners;
+				return;
+			}
+		}
+	}
+	
+	public static boolean isEnabled() {
+		return _listeners.length > 0;
+	}
+	
+	public static long start() {
+		return _listeners.length > 0 ? System.nanoTime() : 0L;
+	}
+	
+	public static void queryExecuted(DbEntity entity, String sql, int rows, long startNanos) {
+		DbEventListener listeners[] = _listeners;
+		if(listeners.length == 0 || startNanos == 0L)
+			return;
+		long nanos = System.nanoTime() - startNanos;
+		for(DbEventListener listener : listeners) {
+			try {
+				listener.queryExecuted(entity, sql, rows, nanos);
+			} catch (RuntimeException e) {
+				failed(listener, e);
+			}
+		}
+	}
+	
+	public static void saveExecuted(int operations, long statements, long startNanos) {
+		DbEventListener listeners[] = _listeners;
+		if(listeners.length == 0 || startNanos == 0L)
+			return;
+		long nanos = System.nanoTime() - startNanos;
+		for(DbEventListener listener : listeners) {
+			try {
+				listener.saveExecuted(operations, statements, nanos);
+			} catch (RuntimeException e) {
+				failed(listener, e);
+			}
+		}
+	}
+	
+	public static void faultLoaded(DbRelationship relationship, int rows, long startNanos) {
+		DbEventListener listeners[] = _listeners;
+		if(listeners.length == 0 || startNanos == 0L)
+			return;
+		long nanos = System.nanoTime() - startNanos;
+		for(DbEventListener listener : listeners) {
+			try {
+				listener.faultLoaded(relationship, rows, nanos);
+			} catch (RuntimeException e) {
+				failed(listener, e);
+			}
+		}
+	}
+	
+	public static void toOneLoaded(DbRelationship relationship, boolean found, long startNanos) {
+		DbEventListener listeners[] = _listeners;
+		if(listeners.length == 0 || startNanos == 0L)
+			return;
+		long nanos = System.nanoTime() - startNanos;
+		for(DbEventListener listener : listeners) {
+			try {
+				listener.toOneLoaded(relationship, found, nanos);
+			} catch (RuntimeException e) {
+				failed(listener, e);
+			}
+		}
+	}
+	
+	public static void cacheGet(DbEntityID entityId, boolean hit, long startNanos) {
+		DbEventListener listeners[] = _listeners;
+		if(listeners.length == 0 || startNanos == 0L)
+			return;
+		long nanos = System.nanoTime() - startNanos;
+		for(DbEventListener listener : listeners) {
+			try {
+				listener.cacheGet(entityId, hit, nanos);
+			} catch (RuntimeException e) {
+				failed(listener, e);
+			}
+		}
+	}
+	
+	public static void cacheAdd(DbEntityID entityId, long startNanos) {
+		DbEventListener listeners[] = _listeners;
+		if(listeners.length == 0 || startNanos == 0L)
+			return;
+		long nanos = System.nanoTime() - startNanos;
+		for(DbEventListener listener : listeners) {
+			try {
+				listener.cacheAdd(entityId, nanos);
+			} catch (RuntimeException e) {
+				failed(listener, e);
+			}
+		}
+	}
+	
+	private static void failed(DbEventListener listener, RuntimeException e) {
+		DbLogger.rdbms.warn("DbEventListener " + listener + " failed", e);
+	}
+}
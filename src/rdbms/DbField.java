@@ -1,16 +1,15 @@
 package rdbms;
 
+import java.math.BigDecimal;
 import java.text.DateFormat;
-import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Date;
 import java.util.List;
 
-import rdbms.util.DbLogger;
 import core.util.Accessor;
-import core.util.CharacterSet;
 
 public class DbField {
 
@@ -76,8 +75,11 @@ public class DbField {
 	DbEntity _entity;
 	boolean _isReadOnly;
 	boolean _lockKey;
+	boolean _isVersion;
 	String _dateFormat;
 	DateFormat __dateFormat;
+	DbPropertyAccessor _accessor;
+	DbCoercion _coercion;
 	
 	public DbField(DbEntity entity, String columnName, String key) {
 		this._entity = entity;
@@ -114,45 +116,22 @@ public class DbField {
 	public boolean isReadOnly() {
 		return _isReadOnly;
 	}
-		
-	private Number coerceToNumber(Object value) {
-		if(value == null)
-			return null;
 	
-		String str = value.toString();
-		
-		if(str == null || str.length() == 0)
-			return null;
+	public DbPropertyAccessor accessor() {
+		if(_accessor == null)
+			_entity.prepare();
+		return _accessor;
+	}
 		
-		Number result = null;
-		CharacterSet cset = new CharacterSet("0123456789.");
-		str = cset.stringContainingCharacters(str);
-		try {
-			if(_valueClass.equals(java.lang.Integer.class))
-				result = new java.lang.Integer(str);
-			if(_valueClass.equals(java.lang.Short.class))
-				result = new java.lang.Short(str);
-			if(_valueClass.equals(java.lang.Long.class))
-				result = new java.lang.Long(str);
-			if(_valueClass.equals(java.lang.Float.class))
-				result = new java.lang.Float(str);
-			if(_valueClass.equals(java.lang.Double.class))
-				result = new java.lang.Double(str);
-			if(_valueClass.equals(java.math.BigDecimal.class))
-				result = new java.math.BigDecimal(str);
-			if(_valueClass.equals(java.math.BigInteger.class))
-				result = new java.math.BigInteger(str);
-		} catch (Exception e) {
-			DbLogger.rdbms.warn("coerceToNumber(): The value " + value + " seems not to be a number");
-		}
-		return result;
+	public DbCoercion coercion() {
+		if(_coercion == null)
+			_coercion = DbCoercion.forValueClass(_valueClass, dateFormat());
+		return _coercion;
 	}
 	
 	public Object coerceValue(Object value) {
 		if(value == null)
 			return null;
-		if(_valueClass == null)
-			return value.toString();
 		
 		if(value instanceof Collection) {
 			List<Object> values = new ArrayList<Object>();
@@ -162,84 +141,25 @@ public class DbField {
 			return values;
 		}
 		
-		if(_valueClass.isAssignableFrom(value.getClass()))
-			return value;
-		
-		if(_valueClass.equals(java.lang.String.class))
-			return value.toString();
-		
-		if(_valueClass.equals(java.lang.Integer.class)) {
-			if(!(value instanceof java.lang.Number))
-				return coerceToNumber(value);
-			else
-				return new java.lang.Integer(((java.lang.Number) value).intValue());
-		}
-		if(_valueClass.equals(java.lang.Short.class)) {
-			if(!(value instanceof java.lang.Number))
-				return coerceToNumber(value);
-			else
-				return new java.lang.Short(((java.lang.Number) value).shortValue());
-		}
-		if(_valueClass.equals(java.lang.Long.class)) {
-			if(!(value instanceof java.lang.Number))
-				return coerceToNumber(value);
-			else
-				return new java.lang.Long(((java.lang.Number) value).longValue());
-		}
-		if(_valueClass.equals(java.lang.Float.class)) {
-			if(!(value instanceof java.lang.Number))
-				return coerceToNumber(value);
-			else
-				return new java.lang.Float(((java.lang.Number) value).floatValue());
-		}
-		if(_valueClass.equals(java.lang.Double.class)) {
-			if(!(value instanceof java.lang.Number))
-				return coerceToNumber(value);
-			else
-				return new java.lang.Double(((java.lang.Number) value).doubleValue());
-				
-		}
-		if(_valueClass.equals(java.math.BigInteger.class)) {
-			if(!(value instanceof java.lang.Number))
-				return coerceToNumber(value);
-			else
-				return new java.math.BigInteger(value.toString());
-		}
-		if(_valueClass.equals(java.math.BigDecimal.class)) {
-			if(!(value instanceof java.lang.Number))
-				return coerceToNumber(value);
-			else
-				return new java.math.BigDecimal(value.toString());
-		}
-		if(_valueClass.equals(java.util.Date.class)) {
-			if(value == null || value.toString().length() == 0)
-				return null;
-			try {
-				return this.dateFormat().parseObject(value.toString());
-			} catch (ParseException e) {
-				DbLogger.rdbms.warn("UniField coerceValue() could not parse date string with format '" + dateFormat() + "'", e);
-				return null;
-			}
-		}
-		if(_valueClass.equals(java.lang.Boolean.class)) {
-			if(!(value instanceof java.lang.Boolean))
-				return new java.lang.Boolean(((Boolean) value).booleanValue());
-			else {
-				String s = value.toString();
-				if("true".equalsIgnoreCase(s) || "yes".equalsIgnoreCase(s) || "1".equals(s))
-					return new java.lang.Boolean(true);
-				else
-					return new java.lang.Boolean(false);
-			}
-		}
-		if(_valueClass.equals(java.lang.Byte.class)) {
-		}
-		if(_valueClass.equals(java.lang.Character.class)) {
-		}
-		if(_valueClass.equals(_NoBytes.getClass())) {
-		}
-		return value;
-
+		return coercion().coerce(value);
+	}
+	
+	public boolean isEqualValue(Object snapshotValue, Object value) {
+		return equalValues(coerceValue(snapshotValue), value);
+	}
+	
+	static boolean equalValues(Object oldValue, Object value) {
+		if(oldValue == value)
+			return true;
+		if(oldValue == null || value == null)
+			return false;
+		if(oldValue instanceof BigDecimal && value instanceof BigDecimal)
+			return ((BigDecimal) oldValue).compareTo((BigDecimal) value) == 0;
+		if(oldValue instanceof Date && value instanceof Date)
+			return ((Date) oldValue).getTime() == ((Date) value).getTime();
+		if(oldValue instanceof byte[] && value instanceof byte[])
+			return Arrays.equals((byte[]) oldValue, (byte[]) value);
+		return oldValue.equals(value);
 	}
 	
 	public DbEntity entity() {
@@ -254,7 +174,7 @@ public class DbField {
 	
 	@Override
 	public String toString() {
-		return "field {columnName=" + _columnName + "; key=" + _key + "; isPrimaryKey=" + _isPrimaryKey + "; valueClass=" + _valueClass.getName() + "; lock=" + _lockKey + "; isReadOnly:" +_isReadOnly + "}";
+		return "field {columnName=" + _columnName + "; key=" + _key + "; isPrimaryKey=" + _isPrimaryKey + "; valueClass=" + _valueClass.getName() + "; lock=" + _lockKey + "; version=" + _isVersion + "; isReadOnly:" +_isReadOnly + "}";
 	}
 		
 	public boolean isDate() {
@@ -284,6 +204,16 @@ public class DbField {
 		return _lockKey;
 	}
 	
+	public boolean isVersion() {
+		return _isVersion;
+	}
+	
+	public Object nextVersion(Object version) {
+		Object value = coerceValue(version);
+		long next = value instanceof Number ? ((Number) value).longValue() + 1 : 1L;
+		return coerceValue(Long.valueOf(next));
+	}
+	
 	public boolean isBlob() {
 		return _valueClass.equals(_NoBytes.getClass());
 	}
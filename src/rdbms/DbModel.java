@@ -11,6 +11,9 @@ public class DbModel {
 	Map<Class<?>, DbEntity> _entityMap = MapUtils.map();
 	List<DbEntity> _entities = ListUtils.list();
 	DbConnectionInfo _connectionInfo;
+	long _slowQueryThreshold = -1L;
+	boolean _explainsSlowQueries = false;
+	boolean _redactsSlowQueryValues = false;
 	
 	public static DbModel modelNamed(String modelName) {
 		return DbModelGroup.modelNamed(modelName);
@@ -49,6 +52,24 @@ public class DbModel {
 	public void setName(String name) {
 		_name = name;
 	}
+	public long slowQueryThreshold() {
+		return _slowQueryThreshold;
+	}
+	public void setSlowQueryThreshold(long millis) {
+		_slowQueryThreshold = millis;
+	}
+	public boolean explainsSlowQueries() {
+		return _explainsSlowQueries;
+	}
+	public void setExplainsSlowQueries(boolean flag) {
+		_explainsSlowQueries = flag;
+	}
+	public boolean redactsSlowQueryValues() {
+		return _redactsSlowQueryValues;
+	}
+	public void setRedactsSlowQueryValues(boolean flag) {
+		_redactsSlowQueryValues = flag;
+	}
 	
 	@Override
 	public String toString() {
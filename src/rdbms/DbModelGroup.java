@@ -130,6 +130,9 @@ public class DbModelGroup {
 		private void initWithElement(DbModel model, Element element) {
 			String modelName = element.getAttribute("name");
 			model.setName(modelName);
+			model.setSlowQueryThreshold(getLongAttribute(element, "slowQueryThreshold", -1L));
+			model.setExplainsSlowQueries(getBooleanAttribute(element, "explainSlowQueries", false));
+			model.setRedactsSlowQueryValues(getBooleanAttribute(element, "redactSlowQueryValues", false));
 			Element[] entityElements = this.elementsNamed(element, "entity");
 			if(entityElements == null || entityElements.length == 0) {
 				DbLogger.rdbms.warn("DbModelGroup : no entity definitions in model '" + modelName + "'");
@@ -152,6 +155,7 @@ public class DbModelGroup {
 			String entityClass = elem.getAttribute("class");
 			String lockingStrategy = elem.getAttribute("lockingStrategy");
 			String cacheStrategy = elem.getAttribute("cacheStrategy");
+			String mapperClass = elem.getAttribute("mapperClass");
 			DbEntity entity = new DbEntity(model, ClassUtils.classForName(entityClass), entityName, tableName);
 			
 			List<DbField> fields = ListUtils.list();
@@ -234,15 +238,35 @@ public class DbModelGroup {
 					cache = DbEntity.CacheStrategy.DistantFuture;
 			}
 			entity._cacheStrategy = cache;
+			entity._slowQueryThreshold = getLongAttribute(elem, "slowQueryThreshold", -1L);
 			
 			if(entity.primaryKeyFields().size() > 1)
 				entity._compositePrimaryKey = true;
+			if(entity._compositePrimaryKey && entity.hasDatabaseGeneratedKey())
+				throw new IllegalStateException("Entity '" + entity.entityName() + "' has a composite primary key. Database generated keys require a single primary key field");
+			entity.prepare();
+			if(!nullOrEmpty(mapperClass))
+				parseMapper(entity, mapperClass);
 			
 			DbLogger.rdbms_dev.debug("Adding entity '" + entity.entityName() + "' to model '" + model.name() + "'");
 			model.addEntity(entity.entityClass(), entity);
 		}
 
 	
+		private void parseMapper(DbEntity entity, String className) {
+			Class<?> mapperClass = ClassUtils.classForName(className);
+			if(mapperClass == null || !DbEntityMapper.class.isAssignableFrom(mapperClass)) {
+				DbLogger.rdbms.warn("DbModelGroup : mapper class '" + className + "' of entity '" + entity.entityName() + "' is not a DbEntityMapper");
+				return;
+			}
+			try {
+				DbEntityMapper mapper = (DbEntityMapper) mapperClass.getConstructor(DbEntity.class).newInstance(entity);
+				entity.setMapper(mapper);
+			} catch (Exception e) {
+				DbLogger.rdbms.warn("DbModelGroup : could not instantiate mapper '" + className + "' of entity '" + entity.entityName() + "'. Falls back to reflection", e);
+			}
+		}
+
 		private void parsePkGenerator(DbEntity entity, Element element) {
 			String className = element.getAttribute("class");
 			if(nullOrEmpty(className))
@@ -270,11 +294,13 @@ public class DbModelGroup {
 			String primaryKey = fieldElem.getAttribute("primaryKey");
 			String readOnly = fieldElem.getAttribute("readOnly");
 			String lock = fieldElem.getAttribute("lock");
+			String version = fieldElem.getAttribute("version");
 			String dateFormat = fieldElem.getAttribute("dateFormat");
 			
 			boolean isPrimaryKey = (nullOrEmpty(primaryKey)) ? false : ("true".equalsIgnoreCase(primaryKey) ? true : false);
 			boolean isReadOnly = (nullOrEmpty(readOnly)) ? false : ("true".equalsIgnoreCase(readOnly) ? true : false);
 			boolean lockKey = (nullOrEmpty(lock)) ? false : ("true".equalsIgnoreCase(lock) ? true : false);
+			boolean isVersion = (nullOrEmpty(version)) ? false : ("true".equalsIgnoreCase(version) ? true : false);
 			
 			if(nullOrEmpty(columnName)) {
 				DbLogger.rdbms.warn("DbModelGroup : no column name in entity '" + entity.entityName() + "'");
@@ -295,6 +321,7 @@ public class DbModelGroup {
 			
 			field._isReadOnly = isReadOnly;
 			field._lockKey = lockKey;
+			field._isVersion = isVersion;
 			if(!StringUtils.nullOrEmpty(dateFormat))
 				field._dateFormat = dateFormat;
 						
@@ -355,9 +382,12 @@ public class DbModelGroup {
 			String username = connElem.getAttribute("username");
 			String password = connElem.getAttribute("password");
 			String url = connElem.getAttribute("url");
-			if(!nullOrEmpty(driverClass) && !nullOrEmpty(username) && !nullOrEmpty(password) && !nullOrEmpty(url)) {
+			String adaptorClass = connElem.getAttribute("adaptor-class");
+			if(!nullOrEmpty(driverClass) && !nullOrEmpty(username) && password != null && !nullOrEmpty(url)) {
 				DbConnectionInfo info = new DbConnectionInfo();
 				info.setDriverClass(driverClass);
+				if(!nullOrEmpty(adaptorClass))
+					info.setAdaptorClass(adaptorClass);
 				info.setUsername(username);
 				info.setPassword(password);
 				info.setUrl(url);
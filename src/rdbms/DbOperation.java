@@ -1,32 +1,45 @@
 package rdbms;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 
 import rdbms.util.DbLogger;
-import core.util.FieldAccess;
+import rdbms.util.DbMetrics;
 import core.util.ListUtils;
-import core.util.Perf;
+import core.util.MapUtils;
 
 public abstract class DbOperation {
 
+	private static final AtomicLong _sequenceCounter = new AtomicLong();
+	
 	Object _object;
 	DbEntity _entity;
 	long _millis;
+	long _sequence;
 	
 	protected DbOperation(Object object, DbEntity entity) {
 		_object = object;
 		_entity = entity;
+		touch();
+	}
+	
+	public void touch() {
 		_millis = System.currentTimeMillis();
+		_sequence = _sequenceCounter.incrementAndGet();
 	}
 	
 	public long timestamp() {
 		return _millis;
 	}
+	public long sequence() {
+		return _sequence;
+	}
 	public Object object() {
 		return _object;
 	}
@@ -46,6 +59,10 @@ public abstract class DbOperation {
 		return updater;
 	}
 	
+	public static List<DbOperation> sortedOperations(Collection<DbOperation> operations) {
+		return sortedOperations(new ArrayList<DbOperation>(operations));
+	}
+	
 	public static List<DbOperation> sortedOperations(List<DbOperation> operations) {
 		int size = operations.size();
 		List<DbOperation> copy = ListUtils.list(size);
@@ -56,7 +73,9 @@ public abstract class DbOperation {
 			@Override
 			public int compare(DbOperation arg0,
 					DbOperation arg1) {
-				return arg0._millis - arg1._millis > 0 ? 1 : arg0._millis - arg1._millis < 0 ? -1 : 0;
+				if(arg0._millis != arg1._millis)
+					return arg0._millis > arg1._millis ? 1 : -1;
+				return arg0._sequence > arg1._sequence ? 1 : arg0._sequence < arg1._sequence ? -1 : 0;
 			}});
 		return copy;
 	}
@@ -78,31 +97,65 @@ public abstract class DbOperation {
 			super(object, entity);
 		}
 
-		@Override
-		public void executeInContext(DbContext context) throws Exception {
+		DbSQLCommand _command;
+		DbEntityID _entityId;
+		
+		public DbSQLCommand prepareInContext(DbContext context) throws Exception {
 			Object pk = _entity.primaryKeyForObject(_object);
-						
 			DbUpdater updater = this.getProcessorInContext(context);			
 
 			context.willUpdate(_object, _entity);
 			
-			Perf p = Perf.newPerf(_entity.entityName() + "(" + pk + ") updated");
-			this.obtainLock(pk, updater);
+			_entityId = updater.session().obtainEntityID(_entity, pk);
+			Map<String, Object> snapshot = _entityId != null ? updater.session().snapshotForEntityID(_entityId) : null;
+			_command = _entity.createUpdateCommand(_object, snapshot, context);
+			if(_command == null)
+				DbLogger.rdbms_command.debug("No column of " + _entity.entityName() + "(" + pk + ") has changed. Update skipped.");
+			return _command;
+		}
+		
+		public DbEntityID entityId() {
+			return _entityId;
+		}
+		
+		public void didExecuteInContext(DbContext context) {
+			DbUpdater updater = this.getProcessorInContext(context);
+			Map<String, Object> row = _command.row();
+			DbField versionField = _entity.versionField();
+			if(versionField != null)
+				versionField.accessor().setValue(_object, row.get(versionField.columnName()));
 			
-			DbSQLCommand updateCommand = _entity.createUpdateCommand(_object, context);
-			updater.session().executeUpdate(updateCommand);
-			Map<String, Object> row = updateCommand.row();
+			context.didUpdate(_object, _entity);
 
-			this.releaseLock(pk, updater);
-			p.stop();
+			if(_entityId != null) {
+				updater.session().updateSnapshot(_entityId, row);
+			}
+			_command = null;
+		}
+
+		@Override
+		public void executeInContext(DbContext context) throws Exception {
+			DbSQLCommand updateCommand = prepareInContext(context);
+			if(updateCommand == null)
+				return;
 			
-			context.didUpdate(_object, _entity);
+			Object pk = _entity.primaryKeyForObject(_object);
+			DbUpdater updater = this.getProcessorInContext(context);			
+			long start = DbMetrics.start();
+			this.obtainLock(pk, updater);
+			
+			int count = updater.session().executeUpdate(updateCommand);
 
+			this.releaseLock(pk, updater);
+			DbMetrics.record(_entity.entityName(), DbMetrics.Operation.Update, start);
 			
-			DbEntityID entityId = updater.session().obtainEntityID(_entity, _entity.primaryKeyForObject(_object));
-			if(entityId != null && updater != null) {
-				updater.session().updateSnapshot(entityId, row);
+			if(count == 0 && _entity.checksVersion()) {
+				List<DbEntityID> entityIds = ListUtils.list(1);
+				entityIds.add(_entityId);
+				throw new DbOptimisticLockException("Row was changed or deleted by another transaction", entityIds);
 			}
+			
+			didExecuteInContext(context);
 		}
 
 		private void obtainLock(Object pk, DbUpdater updater) throws Exception {
@@ -130,10 +183,13 @@ public abstract class DbOperation {
 		}
 		
 		private void deleteDestination(Object object, DbEntity entity, DbUpdater updater, DbContext context) throws Exception {
+			if(!context.shouldDelete(object, entity))
+				return;
 			context.willDelete(object, entity);
 			DbSQLCommand deleteCommand = entity.createDeleteCommand(object, context);
 			updater.session().executeUpdate(deleteCommand);
 			context.didDelete(object, entity);
+			updater.session().forgetSnapshot(updater.session().obtainEntityID(entity, entity.primaryKeyForObject(object)));
 		}
 
 		private void deleteDestinations(Collection<?> objects, DbEntity entity, DbUpdater updater, DbContext context) throws Exception {
@@ -141,18 +197,81 @@ public abstract class DbOperation {
 				deleteDestination(object, entity, updater, context);
 			}
 		}
-		private void nullifyDestination(Object object, DbEntity entity, String sourceKey, DbUpdater updater, DbContext context) throws Exception {
-			FieldAccess.Util.setValueForKey(object, null, sourceKey);
-			DbSQLCommand updateCommand = entity.createUpdateCommand(object, context);
+		private void nullifyDestination(Object object, DbEntity entity, String destinationKey, DbUpdater updater, DbContext context) throws Exception {
+			entity.setValueForKey(object, null, destinationKey);
 			context.willUpdate(object, entity);
+			DbSQLCommand updateCommand = entity.createUpdateCommand(object, context);
 			updater.session().executeUpdate(updateCommand);
 			context.didUpdate(object, entity);
+			updater.session().updateSnapshot(updater.session().obtainEntityID(entity, entity.primaryKeyForObject(object)), updateCommand.row());
 		}
 		
-		private void nullifyDestinations(Collection<?> objects, DbEntity entity, String sourceKey, DbUpdater updater, DbContext context) throws Exception {
+		private void nullifyDestinations(Collection<?> objects, DbEntity entity, String destinationKey, DbUpdater updater, DbContext context) throws Exception {
 			for(Object object : objects) {
-				nullifyDestination(object, entity, sourceKey, updater, context);
+				nullifyDestination(object, entity, destinationKey, updater, context);
+			}
+		}
+		
+		private void cascadeObjects(DbRelationship relationship, DbUpdater updater, DbContext context) throws Exception {
+			Object value = relationship.accessor().getValue(_object);
+			if(value == null)
+				return;
+			if(relationship.ownsDestination()) {
+				if(relationship.isToMany() && value instanceof Collection) {
+					deleteDestinations((Collection<?>)value, relationship.destinationEntity(), updater, context);
+				} else {
+					deleteDestination(value, relationship.destinationEntity(), updater, context);
+				}
+			} else {
+				if(relationship.isToMany() && value instanceof Collection) {
+					nullifyDestinations((Collection<?>)value, relationship.destinationEntity(), relationship.destinationKey(), updater, context);
+				} else {
+					nullifyDestination(value, relationship.destinationEntity(), relationship.destinationKey(), updater, context);
+				}
+			}
+		}
+		
+		private void cascade(DbRelationship relationship, DbUpdater updater, DbContext context) throws Exception {
+			DbEntity destination = relationship.destinationEntity();
+			if(destination == null)
+				return;
+			DbField destinationField = destination.fieldNamed(relationship.destinationKey());
+			if(destinationField == null)
+				return;
+			if(!relationship.ownsDestination() && destinationField.isPrimaryKey())
+				return;
+			
+			boolean perObject = relationship.ownsDestination() ?
+					context.delegateRespondsTo("shouldDelete") || context.delegateRespondsTo("willDelete") || context.delegateRespondsTo("didDelete") :
+					context.delegateRespondsTo("willUpdate") || context.delegateRespondsTo("didUpdate");
+			if(perObject) {
+				cascadeObjects(relationship, updater, context);
+				return;
+			}
+			
+			Object sourceValue = _entity.valueForKey(_object, relationship.sourceKey());
+			if(sourceValue == null)
+				return;
+			DbPredicate predicate = new DbPredicate.KeyValue(relationship.destinationKey(), destinationField.coerceValue(sourceValue));
+			DbSQLCommand command;
+			if(relationship.ownsDestination()) {
+				command = destination.createDeleteCommand(predicate);
+			} else {
+				Map<String, Object> values = MapUtils.map();
+				values.put(relationship.destinationKey(), null);
+				command = destination.createUpdateCommand(predicate, values);
 			}
+			int count = updater.session().executeUpdate(command);
+			DbLogger.rdbms_command.debug((relationship.ownsDestination() ? "Deleted " : "Nullified ") + count + " rows of " + destination.entityName() + " in relationship '" + relationship.key() + "'");
+			if(!relationship.ownsDestination()) {
+				DbField versionField = destination.versionField();
+				for(Object object : updater.session().loadedObjectsMatching(destination, predicate)) {
+					destinationField.accessor().setValue(object, null);
+					if(versionField != null)
+						versionField.accessor().setValue(object, versionField.nextVersion(versionField.accessor().getValue(object)));
+				}
+			}
+			updater.session().forgetSnapshotsMatching(destination, predicate);
 		}
 		
 		@Override
@@ -164,40 +283,40 @@ public abstract class DbOperation {
 
 			DbUpdater updater = this.getProcessorInContext(context);			
 			Object pk = _entity.primaryKeyForObject(_object);
-			Perf p = Perf.newPerf(_entity.entityName() + "(" + pk + ") deleted");
-			DbSQLCommand deleteCommand = _entity.createDeleteCommand(_object, context);
-			updater.session().executeUpdate(deleteCommand);
+			long start = DbMetrics.start();
 			
+			List<DbRelationship> cascadeAfterDelete = ListUtils.list();
 			DbRelationship relationships[] = _entity.relationships();
-			if(relationships != null & relationships.length > 0) {
+			if(relationships != null) {
 				for(DbRelationship relationship : relationships) {
-					Object value = FieldAccess.Util.getValueForKey(_object, relationship.key());
-					
-					if(value == null)
-						continue;
-					if(relationship.ownsDestination()) {
-						if(relationship.isToMany() && value instanceof Collection) {
-							deleteDestinations((Collection<?>)value, relationship.destinationEntity(), updater, context);
-						} else {
-							deleteDestination(value, relationship.destinationEntity(), updater, context);
-						}
-					} else {
-						if(relationship.isToMany() && value instanceof Collection) {
-							nullifyDestinations((Collection<?>)value, relationship.destinationEntity(), relationship.sourceKey(), updater, context);
-						} else {
-							nullifyDestination(value, relationship.destinationEntity(), relationship.sourceKey(), updater, context);
-						}
-					}
+					if(relationship.isForeignKeyInDestination())
+						cascade(relationship, updater, context);
+					else
+						cascadeAfterDelete.add(relationship);
 				}
 			}
 			
-			p.stop();
+			DbSQLCommand deleteCommand = _entity.createDeleteCommand(_object, context);
+			int count = updater.session().executeUpdate(deleteCommand);
+			if(count == 0 && _entity.checksVersion()) {
+				List<DbEntityID> entityIds = ListUtils.list(1);
+				entityIds.add(updater.session().obtainEntityID(_entity, pk));
+				throw new DbOptimisticLockException("Row was changed or deleted by another transaction", entityIds);
+			}
+			
+			for(DbRelationship relationship : cascadeAfterDelete) {
+				cascade(relationship, updater, context);
+			}
+			
+			DbMetrics.record(_entity.entityName(), DbMetrics.Operation.Delete, start);
 			
 			context.didDelete(_object, _entity);
 			
-			DbEntityID entityId = updater.session().obtainEntityID(_entity, _entity.primaryKeyForObject(_object));
-			if(entityId != null && updater != null)
+			DbEntityID entityId = updater.session().obtainEntityID(_entity, pk);
+			if(entityId != null && updater != null) {
 				updater.session().forgetSnapshot(entityId);
+				updater.session().removeCache(entityId);
+			}
 		}
 
 	}
@@ -207,43 +326,103 @@ public abstract class DbOperation {
 		public Insert(Object object, DbEntity entity) {
 			super(object, entity);
 		}
+		
+		private void prepareObject() {
+			if(_entity.inheritance() != null && _entity.parentEntity() != null && _entity.inheritance().isSingleTableInheritance()) {
+				DbField discField = _entity.inheritance().discriminateField();
+				String discValue = _entity.inheritance().discriminateValue();
+				_entity.setValueForKey(_object, discValue, discField.key());
+			}
+			DbField versionField = _entity.versionField();
+			if(versionField != null && versionField.accessor().getValue(_object) == null)
+				versionField.accessor().setValue(_object, versionField.nextVersion(null));
+		}
+		
+		private void didInsert(Map<String, Object> row, DbUpdater updater, DbContext context) {
+			context.didInsert(_object);
+
+			DbEntityID entityId = updater.session().obtainEntityID(_entity, _entity.primaryKeyForObject(_object));
+			if(entityId != null) {
+				updater.session().recordSnapshot(entityId, row);
+				if(context.tracksChanges())
+					updater.session().trackObject(entityId, _object);
+			}
+		}
 
 		@Override
 		public void executeInContext(DbContext context) throws Exception {
-			Object pk = _entity.primaryKeyForObject(_object);
-			if(pk == null) {
-				Perf p = Perf.newPerf("Got primary key for object " + _object);
-				pk = _entity.pkGenerator().newPrimaryKeyForObject(_object, context);
-				p.stop();
-				_entity.setPrimaryKeyForObject(pk, _object);
+			if(_entity.hasDatabaseGeneratedKey()) {
+				List<DbOperation> operations = ListUtils.list(1);
+				operations.add(this);
+				executeInsertsInContext(operations, context);
+				return;
 			}
 			
-			if(pk == null) {
+			DbRowID pk = (DbRowID) _entity.primaryKeyForObject(_object);
+			if(pk.hasNullValue() && _entity.pkGenerator() != null) {
+				long start = DbMetrics.start();
+				Object newPk = _entity.pkGenerator().newPrimaryKeyForObject(_object, context);
+				DbMetrics.record(_entity.entityName(), DbMetrics.Operation.KeyGeneration, start);
+				if(newPk != null) {
+					_entity.setPrimaryKeyForObject(newPk, _object);
+					pk = (DbRowID) _entity.primaryKeyForObject(_object);
+				}
+			}
+			
+			if(pk.hasNullValue()) {
 				DbLogger.rdbms.error("No primary key for object of entity '" + _entity.entityName() + "'");
 				return;
 			}
 			
-			Perf p = Perf.newPerf("Inserted " + _entity.entityName()  + "(" + pk + ")");
-			if(_entity.inheritance() != null && _entity.parentEntity() != null && _entity.inheritance().isSingleTableInheritance()) {
-				DbField discField = _entity.inheritance().discriminateField();
-				String discValue = _entity.inheritance().discriminateValue();
-				FieldAccess.Util.setValueForKey(_object, discValue, discField.key());
-			}
+			long start = DbMetrics.start();
+			prepareObject();
 						
 			DbUpdater updater = this.getProcessorInContext(context);			
 			DbSQLCommand insertCommand = _entity.createInsertCommand(_object, context);
 			updater.session().executeUpdate(insertCommand);
-			Map<String, Object> row = insertCommand.row();
 			
-			p.stop();
+			DbMetrics.record(_entity.entityName(), DbMetrics.Operation.Insert, start);
 			
-			context.didInsert(_object);
-
-			DbEntityID entityId = updater.session().obtainEntityID(_entity, _entity.primaryKeyForObject(_object));
-			if(entityId != null && updater != null)
-				updater.session().recordSnapshot(entityId, row);
+			didInsert(insertCommand.row(), updater, context);
 		}
 		
+		public static void executeInsertsInContext(List<DbOperation> operations, DbContext context) throws Exception {
+			if(operations.isEmpty())
+				return;
+			DbEntity entity = operations.get(0).entity();
+			DbUpdater updater = operations.get(0).getProcessorInContext(context);
+			List<Object> objects = ListUtils.list(operations.size());
+			for(DbOperation operation : operations) {
+				((Insert) operation).prepareObject();
+				objects.add(operation.object());
+			}
+			
+			long start = DbMetrics.start();
+			String keyColumnNames[] = entity.primaryKeyColumnNames();
+			DbSQLCommand insertCommand;
+			List<Object> keys;
+			if(objects.size() == 1) {
+				insertCommand = entity.createInsertCommand(objects.get(0), context);
+				insertCommand.setRows(Collections.singletonList(insertCommand.row()));
+				keys = updater.session().executeInsert(insertCommand, keyColumnNames);
+			} else {
+				insertCommand = entity.createInsertBatchCommand(objects, context);
+				keys = updater.session().executeInsertBatch(insertCommand, keyColumnNames);
+			}
+			DbMetrics.record(entity.entityName(), DbMetrics.Operation.Insert, start);
+			if(keys.size() != objects.size())
+				throw new IllegalStateException("Database returned " + keys.size() + " generated keys for " + objects.size() + " inserted rows of entity '" + entity.entityName() + "'");
+			
+			DbField pkField = entity.primaryKeyField();
+			for(int i = 0, size = operations.size(); i < size; i++) {
+				Insert operation = (Insert) operations.get(i);
+				Object key = pkField.coerceValue(keys.get(i));
+				entity.setPrimaryKeyForObject(key, operation.object());
+				Map<String, Object> row = insertCommand.rows().get(i);
+				row.put(keyColumnNames[0], key);
+				operation.didInsert(row, updater, context);
+			}
+		}
 
 	}
 
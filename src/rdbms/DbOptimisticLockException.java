@@ -0,0 +1,16 @@
+package rdbms;
+
+import java.util.List;
+
+public class DbOptimisticLockException extends RuntimeException {
+	private static final long serialVersionUID = 1L;
+	List<DbEntityID> _entityIds;
+
+	public DbOptimisticLockException(String message, List<DbEntityID> entityIds) {
+		super(message + " " + entityIds);
+		_entityIds = entityIds;
+	}
+	public List<DbEntityID> staleEntityIDs() {
+		return _entityIds;
+	}
+}
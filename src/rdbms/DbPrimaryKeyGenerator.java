@@ -3,9 +3,14 @@ package rdbms;
 import java.sql.SQLException;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 import rdbms.util.DbLogger;
 import core.util.ListUtils;
+import core.util.MapUtils;
 
 public abstract class DbPrimaryKeyGenerator {
 
@@ -20,6 +25,13 @@ public abstract class DbPrimaryKeyGenerator {
 	
 	public abstract Object newPrimaryKeyForEntity(DbEntity entity, DbContext DbContext);
 	
+	public void prepareForInserts(DbEntity entity, int count, DbContext DbContext) {
+	}
+	
+	public boolean isDatabaseGenerated() {
+		return false;
+	}
+	
 	public void setConfig(Map<String, Object> dict) {
 		this._config = dict;
 	}
@@ -27,14 +39,248 @@ public abstract class DbPrimaryKeyGenerator {
 		return _config;
 	}
 	
+	protected Object configValue(String key) {
+		return _config != null ? _config.get(key) : null;
+	}
+	
+	protected int intConfigValue(String key, int defaultValue) {
+		Object value = configValue(key);
+		if(value instanceof Number)
+			return ((Number) value).intValue();
+		if(value instanceof String) {
+			try {
+				return Integer.parseInt(((String) value).trim());
+			} catch (NumberFormatException e) {
+				DbLogger.rdbms.warn("Primary key generator configuration '" + key + "' is not a number: " + value);
+			}
+		}
+		return defaultValue;
+	}
+	
+	static class KeyBlock {
+		final long _high;
+		final AtomicLong _next;
+		final KeyBlock _previous;
+		
+		KeyBlock(long low, long high) {
+			this(null, low, high);
+		}
+		
+		KeyBlock(KeyBlock previous, long low, long high) {
+			_next = new AtomicLong(low);
+			_high = high;
+			_previous = previous != null && previous.remaining() > 0 ? previous : null;
+		}
+		
+		long nextKey() {
+			if(_previous != null) {
+				long key = _previous.nextKey();
+				if(key >= 0)
+					return key;
+			}
+			long key = _next.getAndIncrement();
+			return key <= _high ? key : -1L;
+		}
+		
+		long remaining() {
+			long remaining = _high - _next.get() + 1;
+			if(remaining < 0)
+				remaining = 0;
+			return _previous != null ? remaining + _previous.remaining() : remaining;
+		}
+	}
+	
 	public static class SequenceTableKeyGenerator extends DbPrimaryKeyGenerator {
 
 		public static final String PK_TABLE_NAME = "_SEQUENCE_TABLE";
+		public static final int DefaultBlockSize = 20;
+		
+		private static final Map<DbModel, DbSession> _sessions = MapUtils.map();
+		private final ConcurrentHashMap<String, AtomicReference<KeyBlock>> _blocks = new ConcurrentHashMap<String, AtomicReference<KeyBlock>>();
 
+		public int blockSize() {
+			int size = intConfigValue("blockSize", DefaultBlockSize);
+			return size > 0 ? size : DefaultBlockSize;
+		}
+		
 		@Override
 		public Object newPrimaryKeyForEntity(DbEntity entity,
 				DbContext context) {
-			// TODO Auto-generated method stub
+			DbField field = entity.primaryKeyField();
+			if(field == null || entity.primaryKeyFields().size() != 1) {
+				DbLogger.rdbms.error("SequenceTableKeyGenerator supports only entities with a single primary key field: " + entity.entityName());
+				return null;
+			}
+			DbEntity sequenceEntity = sequenceEntity(entity);
+			AtomicReference<KeyBlock> ref = blockReference(sequenceEntity);
+			while(true) {
+				KeyBlock block = ref.get();
+				if(block != null) {
+					long key = block.nextKey();
+					if(key >= 0)
+						return field.coerceValue(Long.valueOf(key));
+				}
+				synchronized(ref) {
+					if(ref.get() == block) {
+						try {
+							ref.set(allocateBlock(null, sequenceEntity, blockSize()));
+						} catch (SQLException e) {
+							DbLogger.rdbms.error("Couldn't allocate primary keys for entity " + entity.entityName(), e);
+							return null;
+						}
+					}
+				}
+			}
+		}
+		
+		@Override
+		public void prepareForInserts(DbEntity entity, int count, DbContext context) {
+			DbEntity sequenceEntity = sequenceEntity(entity);
+			AtomicReference<KeyBlock> ref = blockReference(sequenceEntity);
+			synchronized(ref) {
+				KeyBlock block = ref.get();
+				long remaining = block != null ? block.remaining() : 0;
+				if(remaining >= count)
+					return;
+				try {
+					ref.set(allocateBlock(block, sequenceEntity, (int) Math.max(count - remaining, blockSize())));
+				} catch (SQLException e) {
+					DbLogger.rdbms.error("Couldn't allocate primary keys for entity " + entity.entityName(), e);
+				}
+			}
+		}
+		
+		private AtomicReference<KeyBlock> blockReference(DbEntity entity) {
+			AtomicReference<KeyBlock> ref = _blocks.get(entity.entityName());
+			if(ref == null) {
+				ref = new AtomicReference<KeyBlock>();
+				AtomicReference<KeyBlock> existing = _blocks.putIfAbsent(entity.entityName(), ref);
+				if(existing != null)
+					ref = existing;
+			}
+			return ref;
+		}
+		
+		private DbEntity sequenceEntity(DbEntity entity) {
+			DbEntity e = entity;
+			while(e.inheritance() != null && e.inheritance().isSingleTableInheritance() && e.parentEntity() != null)
+				e = e.parentEntity();
+			return e;
+		}
+		
+		private KeyBlock allocateBlock(KeyBlock previous, DbEntity entity, int size) throws SQLException {
+			for(int attempt = 0; ; attempt++) {
+				DbSession session = sessionForModel(entity.model());
+				try {
+					return allocateBlock(session, previous, entity, size);
+				} catch (SQLException e) {
+					// the connection may have been dropped; open a new one for the next attempt
+					discardSession(entity.model(), session);
+					if(attempt > 0)
+						throw e;
+					DbLogger.rdbms.warn("Primary key allocation for entity " + entity.entityName() + " failed. Retrying with a new connection", e);
+				}
+			}
+		}
+		
+		private KeyBlock allocateBlock(DbSession session, KeyBlock previous, DbEntity entity, int size) throws SQLException {
+			synchronized(session) {
+				try {
+					String entityName = "'" + entity.entityName() + "'";
+					DbSQLCommand update = new DbSQLCommand(entity, "UPDATE " + PK_TABLE_NAME + " SET MAX_PK = MAX_PK + " + size + " WHERE ENTITY_NAME = " + entityName);
+					int updated = session.executeUpdate(update);
+					if(updated == 0) {
+						long max = queryLong(session, entity, "SELECT MAX(" + entity.primaryKeyField().columnName() + ") FROM " + entity.tableName());
+						try {
+							session.executeUpdate(new DbSQLCommand(entity, "INSERT INTO " + PK_TABLE_NAME + " (ENTITY_NAME, MAX_PK) VALUES (" + entityName + ", " + (max + size) + ")"));
+						} catch (SQLException e) {
+							// another process seeded the row first
+							session.rollbackTransaction();
+							if(session.executeUpdate(update) == 0)
+								throw e;
+							DbLogger.rdbms.debug("Sequence row for entity " + entity.entityName() + " was seeded concurrently. Retried the update");
+						}
+					}
+					long high = queryLong(session, entity, "SELECT MAX_PK FROM " + PK_TABLE_NAME + " WHERE ENTITY_NAME = " + entityName);
+					commit(session);
+					DbLogger.rdbms.debug("Allocated primary keys " + (high - size + 1) + " to " + high + " for entity " + entity.entityName());
+					return new KeyBlock(previous, high - size + 1, high);
+				} catch (SQLException e) {
+					session.rollbackTransaction();
+					throw e;
+				}
+			}
+		}
+		
+		private long queryLong(DbSession session, DbEntity entity, String sql) throws SQLException {
+			List<Map<String, Object>> rows = session.executeQuery(new DbSQLCommand(entity, sql));
+			if(rows.isEmpty() || rows.get(0).isEmpty())
+				return 0L;
+			Object value = rows.get(0).values().iterator().next();
+			return value instanceof Number ? ((Number) value).longValue() : 0L;
+		}
+		
+		private void commit(DbSession session) throws SQLException {
+			try {
+				session.commitTransaction();
+			} catch (SQLException e) {
+				throw e;
+			} catch (Exception e) {
+				throw new SQLException("Could not commit primary key allocation", e);
+			}
+		}
+		
+		public static void closeConnections() {
+			synchronized(_sessions) {
+				for(DbSession session : _sessions.values()) {
+					synchronized(session) {
+						session.rollbackTransaction();
+						session.disconnect();
+					}
+				}
+				_sessions.clear();
+			}
+		}
+		
+		private void discardSession(DbModel model, DbSession session) {
+			synchronized(_sessions) {
+				if(_sessions.get(model) == session)
+					_sessions.remove(model);
+			}
+			synchronized(session) {
+				session.disconnect();
+			}
+		}
+		
+		private DbSession sessionForModel(DbModel model) throws SQLException {
+			synchronized(_sessions) {
+				DbSession session = _sessions.get(model);
+				if(session == null) {
+					session = new DbSession(model);
+					try {
+						session.establishConnection();
+						session.beginTransaction();
+					} catch (Exception e) {
+						session.disconnect();
+						throw new SQLException("Could not open connection for primary key allocation of model " + model, e);
+					}
+					_sessions.put(model, session);
+				}
+				return session;
+			}
+		}
+		
+	}
+	
+	public static class IdentityKeyGenerator extends DbPrimaryKeyGenerator {
+		
+		@Override
+		public boolean isDatabaseGenerated() {
+			return true;
+		}
+
+		@Override
+		public Object newPrimaryKeyForEntity(DbEntity entity, DbContext context) {
 			return null;
 		}
 		
@@ -42,38 +288,91 @@ public abstract class DbPrimaryKeyGenerator {
 	
 	public static class SequenceKeyGenerator extends DbPrimaryKeyGenerator {
 
+		public static final int DefaultBlockSize = 20;
+		
 		private String _sequenceName;
+		private final ConcurrentHashMap<String, ConcurrentLinkedQueue<Object>> _keys = new ConcurrentHashMap<String, ConcurrentLinkedQueue<Object>>();
 
+		public SequenceKeyGenerator() {
+		}
+		
 		public SequenceKeyGenerator(String sequenceName) {
 			_sequenceName = sequenceName;
 		}
 		
-		private String sequenceSQL(DbEntity entity) {
+		public String sequenceName(DbEntity entity) {
+			if(_sequenceName != null)
+				return _sequenceName;
+			Object name = configValue("sequenceName");
+			if(name instanceof String && ((String) name).length() > 0)
+				return (String) name;
 			DbField field = entity.primaryKeyField();
-			if(field != null && _sequenceName != null)
-				return "select nextval('" + _sequenceName + "')";
-			return null;
+			return entity.tableName() + "_" + (field != null ? field.columnName() : "id") + "_seq";
 		}
 		
+		public int blockSize() {
+			int size = intConfigValue("blockSize", DefaultBlockSize);
+			return size > 0 ? size : 1;
+		}
 		
-		@Override
-		public Object newPrimaryKeyForEntity(DbEntity entity,
-				DbContext context) {
-			Object pk = null;
+		private String sequenceSQL(DbEntity entity, int count, DbContext context) {
+			String sequenceName = sequenceName(entity);
+			if(count > 1) {
+				String sql = context.sessionForEntity(entity).adaptor().sqlForNextSequenceValues(sequenceName, count);
+				if(sql != null)
+					return sql;
+			}
+			return "select nextval('" + sequenceName + "')";
+		}
+		
+		private ConcurrentLinkedQueue<Object> keyQueue(DbEntity entity) {
+			ConcurrentLinkedQueue<Object> queue = _keys.get(entity.entityName());
+			if(queue == null) {
+				queue = new ConcurrentLinkedQueue<Object>();
+				ConcurrentLinkedQueue<Object> existing = _keys.putIfAbsent(entity.entityName(), queue);
+				if(existing != null)
+					queue = existing;
+			}
+			return queue;
+		}
+		
+		private void fetchKeys(DbEntity entity, int count, DbContext context, ConcurrentLinkedQueue<Object> queue) {
+			DbField field = entity.primaryKeyField();
 			List<Map<String, Object>> rows = null;
 			try {
-				rows = context.sessionForEntity(entity).executeQuery(new DbSQLCommand(entity, sequenceSQL(entity)));
+				rows = context.sessionForEntity(entity).executeQuery(new DbSQLCommand(entity, sequenceSQL(entity, count, context)));
 			} catch (SQLException e) {
 				DbLogger.rdbms.error("Couldn't obtain sequence for entity " + entity.entityName(), e);
 			}
-			if(!ListUtils.nullOrEmpty(rows)) {
-				Map<String, Object> row = rows.get(0);
-				pk = row.values().iterator().next();
+			if(ListUtils.nullOrEmpty(rows))
+				return;
+			for(Map<String, Object> row : rows) {
+				Object value = row.values().iterator().next();
+				if(value != null)
+					queue.add(field != null ? field.coerceValue(value) : value);
 			}
+		}
 		
+		@Override
+		public Object newPrimaryKeyForEntity(DbEntity entity,
+				DbContext context) {
+			ConcurrentLinkedQueue<Object> queue = keyQueue(entity);
+			Object pk = queue.poll();
+			if(pk == null) {
+				fetchKeys(entity, blockSize(), context, queue);
+				pk = queue.poll();
+			}
 			return pk;
 		}
 		
+		@Override
+		public void prepareForInserts(DbEntity entity, int count, DbContext context) {
+			ConcurrentLinkedQueue<Object> queue = keyQueue(entity);
+			int available = queue.size();
+			if(available < count)
+				fetchKeys(entity, count - available, context, queue);
+		}
+		
 	}
 
 }
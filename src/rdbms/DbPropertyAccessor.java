@@ -0,0 +1,174 @@
+package rdbms;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+
+import rdbms.util.DbLogger;
+import core.util.Accessor;
+import core.util.FieldAccess;
+
+public class DbPropertyAccessor {
+
+	Class<?> _objectClass;
+	String _key;
+	Method _getter;
+	Method _setter;
+	Field _field;
+	boolean _isSettable;
+
+	public DbPropertyAccessor(Class<?> objectClass, String key, Class<?> valueClass) {
+		_objectClass = objectClass;
+		_key = key;
+		// Classes implementing FieldAccess resolve their own keys, so they keep going through FieldAccess.Util.
+		if(objectClass != null && key != null && !FieldAccess.class.isAssignableFrom(objectClass)) {
+			_getter = findGetter(objectClass, key);
+			_setter = findSetter(objectClass, key, valueClass);
+			if(_getter == null || _setter == null)
+				_field = findField(objectClass, key);
+		}
+		_isSettable = objectClass != null && key != null && (_setter != null || _field != null || Accessor.newSetAccessor(objectClass, key) != null);
+	}
+
+	public String key() {
+		return _key;
+	}
+
+	public boolean isSettable() {
+		return _isSettable;
+	}
+
+	public boolean isCompiled() {
+		return (_getter != null || _field != null) && (_setter != null || _field != null);
+	}
+
+	public Class<?> valueType() {
+		if(_getter != null)
+			return _getter.getReturnType();
+		if(_setter != null)
+			return _setter.getParameterTypes()[0];
+		if(_field != null)
+			return _field.getType();
+		return null;
+	}
+
+	public Method setterMethod() {
+		return _setter;
+	}
+
+	public Object getValue(Object object) {
+		if(_objectClass.isInstance(object)) {
+			try {
+				if(_getter != null)
+					return _getter.invoke(object);
+				if(_field != null)
+					return _field.get(object);
+			} catch (InvocationTargetException e) {
+				throw new IllegalStateException("Could not get value for key '" + _key + "' of " + _objectClass.getName(), e.getCause());
+			} catch (IllegalAccessException e) {
+				DbLogger.rdbms.warn("Could not access value for key '" + _key + "' of " + _objectClass.getName() + ". Falls back to FieldAccess", e);
+			}
+		}
+		return FieldAccess.Util.getValueForKey(object, _key);
+	}
+
+	public void setValue(Object object, Object value) {
+		if(_objectClass.isInstance(object)) {
+			try {
+				if(_setter != null) {
+					_setter.invoke(object, value);
+					return;
+				}
+				if(_field != null) {
+					_field.set(object, value);
+					return;
+				}
+			} catch (InvocationTargetException e) {
+				throw new IllegalStateException("Could not set value for key '" + _key + "' of " + _objectClass.getName(), e.getCause());
+			} catch (IllegalArgumentException e) {
+				// null for a primitive falls through to FieldAccess
+				if(value != null) {
+					DbLogger.rdbms.error("Could not set value " + value + " (" + value.getClass().getName() + ") for key '" + _key + "' of " + _objectClass.getName(), e);
+					throw e;
+				}
+			} catch (IllegalAccessException e) {
+				DbLogger.rdbms.warn("Could not access value for key '" + _key + "' of " + _objectClass.getName() + ". Falls back to FieldAccess", e);
+			}
+		}
+		FieldAccess.Util.setValueForKey(object, value, _key);
+	}
+
+	private static String capitalize(String key) {
+		if(key.length() == 0)
+			return key;
+		return Character.toUpperCase(key.charAt(0)) + key.substring(1);
+	}
+
+	private static Method findGetter(Class<?> objectClass, String key) {
+		String cap = capitalize(key);
+		String names[] = {"get" + cap, "is" + cap, key};
+		for(String name : names) {
+			try {
+				Method method = objectClass.getMethod(name);
+				if(method.getReturnType() != Void.TYPE && !Modifier.isStatic(method.getModifiers()))
+					return method;
+			} catch (NoSuchMethodException e) {
+			} catch (SecurityException e) {
+			}
+		}
+		return null;
+	}
+
+	private static Method findSetter(Class<?> objectClass, String key, Class<?> valueClass) {
+		String name = "set" + capitalize(key);
+		Method found = null;
+		for(Method method : objectClass.getMethods()) {
+			if(!method.getName().equals(name) || method.getParameterTypes().length != 1 || Modifier.isStatic(method.getModifiers()))
+				continue;
+			Class<?> paramType = method.getParameterTypes()[0];
+			if(valueClass == null || paramType.isAssignableFrom(valueClass) || wrapperClass(paramType) == valueClass)
+				return method;
+			if(found == null)
+				found = method;
+		}
+		return found;
+	}
+
+	private static Field findField(Class<?> objectClass, String key) {
+		String names[] = {key, "_" + key};
+		for(Class<?> aClass = objectClass; aClass != null && aClass != Object.class; aClass = aClass.getSuperclass()) {
+			for(String name : names) {
+				try {
+					Field field = aClass.getDeclaredField(name);
+					if(Modifier.isStatic(field.getModifiers()) || Modifier.isFinal(field.getModifiers()))
+						continue;
+					field.setAccessible(true);
+					return field;
+				} catch (NoSuchFieldException e) {
+				} catch (SecurityException e) {
+					return null;
+				}
+			}
+		}
+		return null;
+	}
+
+	static Class<?> wrapperClass(Class<?> type) {
+		if(!type.isPrimitive())			return type;
+		if(type == Integer.TYPE)		return Integer.class;
+		if(type == Long.TYPE)			return Long.class;
+		if(type == Short.TYPE)			return Short.class;
+		if(type == Float.TYPE)			return Float.class;
+		if(type == Double.TYPE)			return Double.class;
+		if(type == Boolean.TYPE)		return Boolean.class;
+		if(type == Byte.TYPE)			return Byte.class;
+		if(type == Character.TYPE)		return Character.class;
+		return type;
+	}
+
+	@Override
+	public String toString() {
+		return "accessor {class=" + (_objectClass != null ? _objectClass.getName() : null) + "; key=" + _key + "; getter=" + _getter + "; setter=" + _setter + "; field=" + _field + "}";
+	}
+}
@@ -1,16 +1,17 @@
 package rdbms;
 
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 
 import rdbms.command.AggregateFunctions;
 import rdbms.command.Select;
+import rdbms.command.UnionSelect;
 import rdbms.object.DbFaultingList;
 import rdbms.util.DbLogger;
-import core.util.FieldAccess;
+import rdbms.util.DbMetrics;
 import core.util.ListUtils;
 import core.util.MapUtils;
-import core.util.Perf;
 
 public class DbQuery extends DbAccess {
 
@@ -20,26 +21,35 @@ public class DbQuery extends DbAccess {
 
 		
 	public List loadObjectsInRelationship(Object owner, DbRelationship join) {
-		Perf p = Perf.newPerf("Objects in to many join " + join.key() + " loaded");
+		return loadObjectsInRelationship(owner, join, DbContext.get());
+	}
+	
+	public List loadObjectsInRelationship(Object owner, DbRelationship join, DbContext context) {
+		long start = DbMetrics.start();
 		List objects = ListUtils.list();
 		DbEntity destinationEntity = join.destinationEntity();
 		try {
-			Object sourceKeyValue = FieldAccess.Util.getValueForKey(owner, join.sourceKey());
+			Object sourceKeyValue = join.entity().valueForKey(owner, join.sourceKey());
 			Map<String, Object> fieldValues = MapUtils.map();
 			fieldValues.put(join.destinationKey(), sourceKeyValue);
-			List values = DbContext.get().executeQuery(destinationEntity.entityClass(), fieldValues);
+			List values = context.executeQuery(destinationEntity.entityClass(), fieldValues);
 			if(values != null)
 				objects.addAll(values);
 		} catch (Exception e) {
 			DbLogger.rdbms.error("DbQuery failed to load objects in join '" + join.key() + "'", e);
 		}
-		p.stop();
+		DbMetrics.record(destinationEntity.entityName(), DbMetrics.Operation.ToManyLoad, start);
 		return objects;
 	}
 
 	public Object loadObjectInRelationship(Object owner, DbRelationship join) {
-		Perf p = Perf.newPerf("Object in to one join " + join.key() + " loaded");
-		Object sourceKeyValue = FieldAccess.Util.getValueForKey(owner, join.sourceKey());
+		return loadObjectInRelationship(owner, join, DbContext.get());
+	}
+	
+	public Object loadObjectInRelationship(Object owner, DbRelationship join, DbContext context) {
+		long start = DbMetrics.start();
+		long eventStart = DbEvents.start();
+		Object sourceKeyValue = join.entity().valueForKey(owner, join.sourceKey());
 		DbEntity destinationEntity = join.destinationEntity();
 		Map<String, Object> fieldValues = MapUtils.map();
 		fieldValues.put(join.destinationKey(), sourceKeyValue);
@@ -47,10 +57,11 @@ public class DbQuery extends DbAccess {
 		if(join.cacheDestination())
 			value = session().cachedObject(destinationEntity, join.destinationKey(), sourceKeyValue);
 		if(value == null)
-			value = DbContext.get().findOne(destinationEntity.entityClass(), fieldValues);
+			value = context.findOne(destinationEntity.entityClass(), fieldValues);
 		if(join.cacheDestination())
 			session().cache(value, join.destinationKey(), sourceKeyValue);
-		p.stop();
+		DbMetrics.record(destinationEntity.entityName(), DbMetrics.Operation.ToOneLoad, start);
+		DbEvents.toOneLoaded(join, value != null, eventStart);
 		return value;
 	}
 	
@@ -67,61 +78,55 @@ public class DbQuery extends DbAccess {
 			DbLogger.rdbms.debug("Relationship " + key + " in entity " + entity.entityName() +  " is not to-one");
 			return null;
 		}
-		return loadObjectInRelationship(owner, join);
+		return loadObjectInRelationship(owner, join, context);
 	}
 
 	public <T> List<T> executeQuery(DbQuerySpecification spec, DbContext DbContext) {
 		DbEntity entity = spec.entity();
-		List<DbEntity> entities = ListUtils.list();
-		if(!entity.isAbstractClass())
-			entities.add(entity);
-		entities.addAll(entity.concreteDescendantEntities());
+		List<DbEntity> entities = entity.concreteEntities();
+		
+		if(spec.isLocking()) {
+			try {
+				session().establishConnection();
+				DbContext.updateProcessorForEntity(entity).begin();
+			} catch (Exception e) {
+				DbLogger.rdbms.error("DbQuery could not begin transaction for locking fetch", e);
+				return ListUtils.list();
+			}
+		}
 
+		if(!spec.isLocking() && shouldFetchWithUnion(entities))
+			return _executeUnionQuery(spec, entities, DbContext);
 
+		// fetch limits apply to each entity's select on this path
 		List objects = ListUtils.list();
 		for(DbEntity ent : entities) {
-			DbQuerySpecification qs;
-			DbPredicate newPredicate = null;
-			if(ent.inheritance() != null) {
-				DbPredicate additionalPredicate = ent.additionalPredicateForInheritance();
-				DbPredicate pred = spec.predicate();
-				if(pred == null && additionalPredicate != null) {
-					newPredicate = additionalPredicate;
-				} else if(pred != null && additionalPredicate != null) {
-					List<DbPredicate> ps = ListUtils.list();
-					ps.add(additionalPredicate);
-					if(pred instanceof DbPredicate.And) {
-						ps.addAll(((DbPredicate.And) pred).predicates());
-					} else {
-						ps.add(pred);
-					}
-					newPredicate = new DbPredicate.And(ps);
-				}
-			}
-			qs = new DbQuerySpecification(ent, newPredicate != null ? newPredicate : spec.predicate());
+			DbQuerySpecification qs = new DbQuerySpecification(ent, ent.predicateWithInheritance(spec.predicate()));
 			qs.setFetchHint(spec.fetchHint());
 			qs.setForceRefetch(spec.forceRefetch());
 			qs.setSortOrderings(spec.sortOrderings());
+			qs.setLockMode(spec.lockMode());
 			objects.addAll(_executeQuery(qs, DbContext));	
 		}
 		return objects;
 	}
 
 		
-	private List<Map<String, Object>> _executeQuery(Select select, DbEntity entity) throws Exception {
-		List<Map<String, Object>> results;
-		Map<DbEntityID, Map<String, Object>> snapshots = MapUtils.map();
-				
+	private DbSQLCommand sqlCommandForSelect(Select select) throws Exception {
 		session().establishConnection();
+		select.generationContext().setAdaptor(session().adaptor());
 		//boolean forceRefetch = select.querySpecification().forceRefetch();
-		/*
-		Map<String, Integer> hint = select.querySpecification().fetchHint();
-		int fetchLimitSize = (hint != null && hint.get(DbQuerySpecification.FetchLimitSize) != null) ? hint.get(DbQuerySpecification.FetchLimitSize).intValue() : -1;
-		int fetchLimitStart = (hint != null && hint.get(DbQuerySpecification.FetchLimitStart) != null)	? hint.get(DbQuerySpecification.FetchLimitStart).intValue() : 0;
-			*/
-		DbSQLCommand command = select.sqlCommand();
+		return select.sqlCommand();
+	}
+	
+	private List<Map<String, Object>> _executeQuery(DbSQLCommand command, DbEntity entity) throws Exception {
+		List<Map<String, Object>> results;
+		Map<DbEntityID, Map<String, Object>> snapshots = MapUtils.map();
 		DbLogger.rdbms_command.debug(command.sql());
+		long start = DbMetrics.start();
 		results = session().executeQuery(command);
+		DbMetrics.record(entity.entityName(), DbMetrics.Operation.Query, start);
+		DbMetrics.recordRows(entity.entityName(), results.size());
 				
 		for(Map<String, Object> row : results) {
 			Object pk = entity.primaryKeyForRow(row);
@@ -137,7 +142,7 @@ public class DbQuery extends DbAccess {
 		Select select = new Select(spec);
 		List<Map<String, Object>> rows = null;
 		try {
-			rows = this._executeQuery(select, spec.entity());
+			rows = this._executeQuery(sqlCommandForSelect(select), spec.entity());
 		} catch (Exception e) {
 			DbLogger.rdbms.error("DbQuery failed to fetch", e);
 		}
@@ -146,65 +151,146 @@ public class DbQuery extends DbAccess {
 	
 	private <T> List<T> _executeQuery(DbQuerySpecification spec, DbContext DbContext) {
 		Select select = new Select(spec);
+		DbSQLCommand command = null;
 		List<Map<String, Object>> rows = null;
 		try {
-			rows = this._executeQuery(select, spec.entity());
+			command = sqlCommandForSelect(select);
+			rows = this._executeQuery(command, spec.entity());
 		} catch (Exception e) {
 			DbLogger.rdbms.error("DbQuery failed to fetch", e);
 		}
 		List list = ListUtils.list();
 		if(rows != null) {
 			DbEntity entity = spec.entity();
-			//DbField pkField = entity.primaryKeyField();
-			List<DbField> pkFields = entity.primaryKeyFields();
+			long start = System.nanoTime();
 			for(Map<String, Object> row : rows) {
-				Object object = null;
 				try {
-					DbRowID pk = entity.primaryKeyForRow(row);
-					//Object pk = row.get(pkField.columnName());
-					DbEntityID entityId = null;
-					Object cache = null;
-					if(pk != null)
-						entityId = session().obtainEntityID(entity, pk);
-					if(entityId != null)
-						cache = session().cachedObject(entityId);
-					if(cache != null && !spec.forceRefetch())
-						object = cache;
-					else
-						object = entity.entityClass().newInstance();
-					entity.initObject(object, row, DbContext);
-					session().cache(object);
-					for(DbRelationship join : entity.relationships()) {
-						String key = join.key();
-						Object value = null;
-						if(join.isToMany()) {
-							if(join.shouldPrefetch()) {
-								value = this.loadObjectsInRelationship(object, join);
-							} else {
-								value = new DbFaultingList(object, join);
-								((DbFaultingList) value).setFault(true);
-							}
-						} else {
-							if(join.shouldPrefetch())
-								value = this.loadObjectInRelationship(object, join);
-							else
-								value = null;
-						}
-						FieldAccess.Util.setValueForKey(object, value, key);
-					}
-					list.add(object);
+					list.add(objectForRow(entity, row, spec, DbContext));
 				} catch (Exception e) {
 					DbLogger.rdbms.error("DbQuery: error while initializing object of '" + entity.entityClass().getName() + "' from database row of table '" + entity.entityName() + "'", e);
 				}
 			}
+			session().adaptor().statementStatistics().recordMapping(command.template(), System.nanoTime() - start);
 		}
 		
 		return list;
 		
 	}
 	
-
+	private Object objectForRow(DbEntity entity, Map<String, Object> row, DbQuerySpecification spec, DbContext DbContext) throws Exception {
+		Object object = null;
+		DbRowID pk = entity.primaryKeyForRow(row);
+		DbEntityID entityId = null;
+		Object cache = null;
+		if(pk != null)
+			entityId = session().obtainEntityID(entity, pk);
+		if(entityId != null)
+			cache = session().cachedObject(entityId);
+		if(cache != null && !spec.forceRefetch())
+			object = cache;
+		else
+			object = entity.newInstance();
+		entity.initObject(object, row, DbContext);
+		session().cache(object);
+		if(entityId != null && DbContext.tracksChanges())
+			session().trackObject(entityId, object);
+		for(DbRelationship join : entity.relationships()) {
+			Object value = null;
+			if(join.isToMany()) {
+				if(join.shouldPrefetch()) {
+					value = this.loadObjectsInRelationship(object, join, DbContext);
+				} else {
+					value = new DbFaultingList(object, join, DbContext);
+					((DbFaultingList) value).setFault(true);
+				}
+			} else {
+				if(join.shouldPrefetch())
+					value = this.loadObjectInRelationship(object, join, DbContext);
+				else
+					value = null;
+			}
+			join.accessor().setValue(object, value);
+		}
+		return object;
+	}
 	
+	private boolean shouldFetchWithUnion(List<DbEntity> entities) {
+		if(entities.size() < 2)
+			return false;
+		for(DbEntity entity : entities) {
+			if(entity.inheritance() != null && entity.inheritance().isSingleTableInheritance())
+				return false;
+		}
+		return true;
+	}
+	
+	private DbEntity entityForUnionRow(Map<String, Object> row, List<DbEntity> entities) {
+		Object entityName = row.remove(UnionSelect.EntityTypeColumnName);
+		if(entityName == null) {
+			Iterator<Map.Entry<String, Object>> iter = row.entrySet().iterator();
+			while(iter.hasNext()) {
+				Map.Entry<String, Object> entry = iter.next();
+				if(UnionSelect.EntityTypeColumnName.equalsIgnoreCase(entry.getKey())) {
+					entityName = entry.getValue();
+					iter.remove();
+					break;
+				}
+			}
+		}
+		for(DbEntity entity : entities) {
+			if(entity.entityName().equals(entityName))
+				return entity;
+		}
+		return null;
+	}
+	
+	private <T> List<T> _executeUnionQuery(DbQuerySpecification spec, List<DbEntity> entities, DbContext DbContext) {
+		UnionSelect select = new UnionSelect(spec, entities);
+		List<Map<String, Object>> rows = null;
+		List<DbEntity> rowEntities = ListUtils.list();
+		DbSQLCommand command = null;
+		try {
+			Map<DbEntityID, Map<String, Object>> snapshots = MapUtils.map();
+			session().establishConnection();
+			select.generationContext().setAdaptor(session().adaptor());
+			command = select.sqlCommand();
+			DbLogger.rdbms_command.debug(command.sql());
+			long start = DbMetrics.start();
+			rows = session().executeQuery(command);
+			DbMetrics.record(spec.entity().entityName(), DbMetrics.Operation.Query, start);
+			DbMetrics.recordRows(spec.entity().entityName(), rows.size());
+			for(Map<String, Object> row : rows) {
+				DbEntity entity = entityForUnionRow(row, entities);
+				rowEntities.add(entity);
+				if(entity == null) {
+					DbLogger.rdbms.warn("DbQuery: no entity for union row " + row);
+					continue;
+				}
+				DbEntityID entityId = session().obtainEntityID(entity, entity.primaryKeyForRow(row));
+				snapshots.put(entityId, row);
+			}
+			session().recordSnapshots(snapshots);
+		} catch (Exception e) {
+			DbLogger.rdbms.error("DbQuery failed to fetch", e);
+			rows = null;
+		}
+		List list = ListUtils.list();
+		if(rows != null) {
+			long start = System.nanoTime();
+			for(int i = 0, size = rows.size(); i < size; i++) {
+				DbEntity entity = rowEntities.get(i);
+				if(entity == null)
+					continue;
+				try {
+					list.add(objectForRow(entity, rows.get(i), spec, DbContext));
+				} catch (Exception e) {
+					DbLogger.rdbms.error("DbQuery: error while initializing object of '" + entity.entityClass().getName() + "' from database row of table '" + entity.entityName() + "'", e);
+				}
+			}
+			session().adaptor().statementStatistics().recordMapping(command.template(), System.nanoTime() - start);
+		}
+		return list;
+	}
 	
 	// sum, min, max, avg
 	public Map<String, Number> executeAggregateFunctions(String key, DbQuerySpecification spec, DbContext DbContext) throws Exception {
@@ -231,14 +317,16 @@ public class DbQuery extends DbAccess {
 		DbSQLCommand command = new DbSQLCommand(entity, sqlString);
 		DbLogger.rdbms_command.debug("Executing " + command.sql());
 		results = session().executeQuery(command);
-		List list = ListUtils.list();
+		List list = ListUtils.list(results != null ? results.size() : 0);
 		if(!ListUtils.nullOrEmpty(results)) {
-			for(Map<String, Object> row : results) {
-				DbLogger.rdbms_command.debug("Mapping row " + row);
-				Object obj = mapper.createObjectFromRow(row);
-				if(obj != null)
-				list.add(obj);
+			if(DbLogger.rdbms_command.isDebugEnabled()) {
+				for(Map<String, Object> row : results) {
+					DbLogger.rdbms_command.debug("Mapping row " + row);
+				}
 			}
+			long start = System.nanoTime();
+			list.addAll(mapper.createObjectsFromRows(results));
+			session().adaptor().statementStatistics().recordMapping(command.template(), System.nanoTime() - start);
 		}
 		return list;
 	}
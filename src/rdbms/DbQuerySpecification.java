@@ -7,6 +7,11 @@ import core.util.ListUtils;
 
 
 public class DbQuerySpecification {
+	
+	public enum LockMode {
+		None, ForUpdate, NoWait, SkipLocked
+	}
+	
 	DbEntity _entity;
 	Class<?> _entityClass;
 	DbPredicate _predicate;
@@ -16,6 +21,7 @@ public class DbQuerySpecification {
 	public static final String FetchLimitSize = "fetchLimitSize";
 	public static final String FetchLimitStart = "fetchLimitStart";
 	boolean _forceRefetch = false;
+	LockMode _lockMode = LockMode.None;
 		
 	public DbQuerySpecification(DbEntity entity, DbPredicate predicate) {
 		this._entity = entity;
@@ -55,11 +61,30 @@ public class DbQuerySpecification {
 	public Map<String, Integer> fetchHint() {
 		return _fetchHint;
 	}
+	public int fetchLimitSize() {
+		if(_fetchHint == null || _fetchHint.get(FetchLimitSize) == null)
+			return -1;
+		return _fetchHint.get(FetchLimitSize).intValue();
+	}
+	public int fetchLimitStart() {
+		if(_fetchHint == null || _fetchHint.get(FetchLimitStart) == null)
+			return 0;
+		return _fetchHint.get(FetchLimitStart).intValue();
+	}
 	public boolean forceRefetch() {
 		return _forceRefetch;
 	}
 	public void setForceRefetch(boolean flag) {
 		_forceRefetch = flag;
 	}
+	public LockMode lockMode() {
+		return _lockMode;
+	}
+	public void setLockMode(LockMode mode) {
+		_lockMode = mode != null ? mode : LockMode.None;
+	}
+	public boolean isLocking() {
+		return _lockMode != LockMode.None;
+	}
 
 }
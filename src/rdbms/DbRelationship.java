@@ -16,6 +16,7 @@ public class DbRelationship {
 	String _destinationKey;
 	boolean _ownsDestination;
 	boolean _cacheDestination = true;
+	DbPropertyAccessor _accessor;
 
 	public DbRelationship(DbEntity sourceEntity, String destinationEntity, String key, String sourceKey, String destinationKey, boolean isToMany, boolean ownsDestination) {
 		_entity = sourceEntity;
@@ -80,6 +81,25 @@ public class DbRelationship {
 		return model != null ? model.entityNamed(_destinationEntityName) : null;
 	}
 	
+	public boolean isForeignKeyInDestination() {
+		DbEntity destination = destinationEntity();
+		DbField sourceField = _entity.fieldNamed(_sourceKey);
+		DbField destinationField = destination != null ? destination.fieldNamed(_destinationKey) : null;
+		boolean sourceIsPK = sourceField != null && sourceField.isPrimaryKey();
+		boolean destinationIsPK = destinationField != null && destinationField.isPrimaryKey();
+		if(sourceIsPK != destinationIsPK)
+			return sourceIsPK;
+		return _isToMany || _ownsDestination;
+	}
+	
+	public DbEntity dependentEntity() {
+		return isForeignKeyInDestination() ? destinationEntity() : _entity;
+	}
+	
+	public DbEntity referencedEntity() {
+		return isForeignKeyInDestination() ? _entity : destinationEntity();
+	}
+	
 	public String toString() {
 		return "join {key=" + _key + "; targetEntity=" + _destinationEntityName + "}";
 	}
@@ -87,11 +107,22 @@ public class DbRelationship {
 	public boolean cacheDestination() {
 		return _cacheDestination;
 	}
+	
+	public DbPropertyAccessor accessor() {
+		if(_accessor == null)
+			_entity.prepare();
+		return _accessor;
+	}
 
 	public static void addObjectToBothSidesOfRelationshipWithKey(
 			Object object, Object value, String key) {
-		DbEntity sourceEntity = DbContext.get().entityForObject(object);
-		DbEntity destEntity = DbContext.get().entityForObject(value);
+		addObjectToBothSidesOfRelationshipWithKey(object, value, key, DbContext.get());
+	}
+
+	public static void addObjectToBothSidesOfRelationshipWithKey(
+			Object object, Object value, String key, DbContext context) {
+		DbEntity sourceEntity = context.entityForObject(object);
+		DbEntity destEntity = context.entityForObject(value);
 		if(sourceEntity == null || destEntity == null)
 			return;
 		DbRelationship rel = sourceEntity.relationshipNamed(key);
@@ -110,7 +141,7 @@ public class DbRelationship {
 			String destKey = rel.destinationKey();
 			Object sourceValue = FieldAccess.Util.getValueForKey(object, sourceKey);
 			FieldAccess.Util.setValueForKey(value, sourceValue, destKey);
-			DbContext.get().updateObject(object);
+			context.updateObject(object);
 			if(reverseJoin != null) {
 				FieldAccess.Util.setValueForKey(value, object, reverseJoin.key());
 			}
@@ -124,13 +155,18 @@ public class DbRelationship {
 				FieldAccess.Util.setValueForKey(value, object, reverseJoin.key());
 			}
 		}
-		DbContext.get().updateObject(value);
+		context.updateObject(value);
 	}
 
 	public static void removeObjectFromBothSidesOfRelationshipWithKey(
 			Object object, Object value, String key) {
-		DbEntity sourceEntity = DbContext.get().entityForObject(object);
-		DbEntity destEntity = DbContext.get().entityForObject(value);
+		removeObjectFromBothSidesOfRelationshipWithKey(object, value, key, DbContext.get());
+	}
+
+	public static void removeObjectFromBothSidesOfRelationshipWithKey(
+			Object object, Object value, String key, DbContext context) {
+		DbEntity sourceEntity = context.entityForObject(object);
+		DbEntity destEntity = context.entityForObject(value);
 		if(sourceEntity == null || destEntity == null)
 			return;
 		DbRelationship rel = sourceEntity.relationshipNamed(key);
@@ -140,9 +176,9 @@ public class DbRelationship {
 			Collection col = (Collection) FieldAccess.Util.getValueForKey(object, rel.key());
 			DbLogger.rdbms_test.info("**** Before delete " + col);
 			DbLogger.rdbms_test.info("**** Removing " + value);
-			DbEntityID eid = DbContext.get().entityIDForObject(value);
+			DbEntityID eid = context.entityIDForObject(value);
 			for(Object obj : col) {
-				DbEntityID eid2 = DbContext.get().entityIDForObject(obj);
+				DbEntityID eid2 = context.entityIDForObject(obj);
 				if(eid.equals(eid2)) {
 					col.remove(obj);
 					break;
@@ -157,11 +193,11 @@ public class DbRelationship {
 			String destKey = rel.destinationKey();
 			FieldAccess.Util.setValueForKey(value, null, destKey);
 			FieldAccess.Util.setValueForKey(object, null, sourceKey);
-			DbContext.get().updateObject(object);
+			context.updateObject(object);
 		}
 		
 		if(rel.ownsDestination()) {
-			DbContext.get().deleteObject(value);
+			context.deleteObject(value);
 		}
 	}
 
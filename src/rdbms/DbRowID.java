@@ -29,6 +29,16 @@ public class DbRowID {
 		return _ids;
 	}
 	
+	public boolean hasNullValue() {
+		if(_ids.isEmpty())
+			return true;
+		for(Object value : _ids.values()) {
+			if(value == null)
+				return true;
+		}
+		return false;
+	}
+	
 	@Override
 	public boolean equals(Object other) {
 		return MapUtils.mapEquals(_ids, ((DbRowID) other)._ids);
@@ -1,28 +1,31 @@
 package rdbms;
 
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
 import java.text.DateFormat;
-import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.Collection;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import rdbms.util.DbLogger;
+
 import core.util.Accessor;
-import core.util.CharacterSet;
 import core.util.ClassUtils;
-import core.util.FieldAccess;
 import core.util.ListUtils;
 import core.util.MapUtils;
 
 public abstract class DbRowMapper {
 
-	private static byte[] _NoBytes = new byte[0];
 	Class<?> _objectClass;
 	List<String> _columnNames;
 	List<String> _keys;
 	Map<String, DateFormat> _dateFormats = MapUtils.map();
 	Map<String, ValueConverter> _converters = MapUtils.map();
+	volatile Map<String, DbCoercion> _coercions = MapUtils.map();
+	volatile MappingPlan _plan;
 	
 	protected DbRowMapper(Class<?> objectClass) {
 		_objectClass = objectClass;
@@ -30,9 +33,12 @@ public abstract class DbRowMapper {
 	
 	public void setColumnNames(List<String> columnNames) {
 		_columnNames = columnNames;
+		_plan = null;
 	}
 	public void setKeys(List<String> keys) {
 		_keys = keys;
+		prepareCoercions();
+		_plan = null;
 	}
 	
 	protected Class<?> valueClassForKey(String key) {
@@ -40,66 +46,156 @@ public abstract class DbRowMapper {
 		Class<?> valueClass = accessor.getReturnType();
 		return valueClass;
 	}
-	public Object createObjectFromRow(Map<String, Object> row) {
-		
-		int size = _columnNames.size() > _keys.size() ? _keys.size() : _columnNames.size();
-		Object obj = ClassUtils.newInstance(_objectClass);
-		if(obj != null) {
-			for(int i = 0; i < size; i++) {
-				String colName = _columnNames.get(i);
-				String key = _keys.get(i);
-				Object o = row.get(colName);
-				Class<?> valueClass = valueClassForKey(key);
-				ValueConverter converter = _converters.get(key);
-				Object value = null;
-				if(converter != null)
-					value = converter.convertObject(o, valueClass, key);
-				else
-					value = coerceValue(o, valueClass, key);
-				FieldAccess.DefaultImplementation.setValueForKey(obj, value, key);
+	
+	private Class<?> resolveValueClass(String key) {
+		try {
+			return valueClassForKey(key);
+		} catch (Exception e) {
+			DbLogger.rdbms.debug("DbRowMapper: no get accessor for key '" + key + "' of " + _objectClass.getName() + ". Uses the property type", e);
+			return new DbPropertyAccessor(_objectClass, key, null).valueType();
+		}
+	}
+	
+	private void prepareCoercions() {
+		Map<String, DbCoercion> coercions = MapUtils.map();
+		if(_keys != null) {
+			for(String key : _keys) {
+				coercions.put(key, newCoercion(key, resolveValueClass(key)));
 			}
 		}
+		_coercions = coercions;
+	}
+	
+	public Object createObjectFromRow(Map<String, Object> row) {
+		return createObject(mappingPlan(row), row);
+	}
+	
+	public List<Object> createObjectsFromRows(List<Map<String, Object>> rows) {
+		List<Object> objects = ListUtils.list(rows.size());
+		if(rows.isEmpty())
+			return objects;
+		MappingPlan plan = mappingPlan(rows.get(0));
+		for(Map<String, Object> row : rows) {
+			Object obj = createObject(plan, row);
+			if(obj != null)
+				objects.add(obj);
+		}
+		return objects;
+	}
+	
+	private Object createObject(MappingPlan plan, Map<String, Object> row) {
+		Object obj = plan.newInstance();
+		if(obj != null)
+			plan.initObject(obj, row);
 		return obj;
 	}
-
-	private Number coerceToNumber(Object value, Class<?> valueClass) {
-		if(value == null)
-			return null;
 	
-		String str = value.toString();
+	protected MappingPlan mappingPlan(Map<String, Object> row) {
+		MappingPlan plan = _plan;
+		if(plan == null || !plan.matches(row)) {
+			plan = new MappingPlan(row.keySet());
+			_plan = plan;
+		}
+		return plan;
+	}
+	
+	protected class MappingPlan {
+		int _size;
+		Set<String> _rowColumnNames;
+		String[] _planColumnNames;
+		String[] _planKeys;
+		Class<?>[] _valueClasses;
+		ValueConverter[] _planConverters;
+		DbCoercion[] _planCoercions;
+		DbPropertyAccessor[] _accessors;
+		Constructor<?> _constructor;
+		boolean _overridesCoerceValue;
 		
-		if(str == null || str.length() == 0)
-			return null;
+		MappingPlan(Set<String> rowColumnNames) {
+			_rowColumnNames = new HashSet<String>(rowColumnNames);
+			int count = _columnNames.size() > _keys.size() ? _keys.size() : _columnNames.size();
+			List<Integer> mapped = ListUtils.list();
+			for(int i = 0; i < count; i++) {
+				if(_rowColumnNames.contains(_columnNames.get(i)))
+					mapped.add(Integer.valueOf(i));
+			}
+			_size = mapped.size();
+			_planColumnNames = new String[_size];
+			_planKeys = new String[_size];
+			_valueClasses = new Class<?>[_size];
+			_planConverters = new ValueConverter[_size];
+			_planCoercions = new DbCoercion[_size];
+			_accessors = new DbPropertyAccessor[_size];
+			for(int i = 0; i < _size; i++) {
+				int index = mapped.get(i).intValue();
+				String key = _keys.get(index);
+				_planColumnNames[i] = _columnNames.get(index);
+				_planKeys[i] = key;
+				_accessors[i] = new DbPropertyAccessor(_objectClass, key, null);
+				Class<?> valueClass = resolveValueClass(key);
+				_valueClasses[i] = valueClass;
+				_planConverters[i] = _converters.get(key);
+				_planCoercions[i] = coercionForKey(key, valueClass);
+			}
+			try {
+				_constructor = _objectClass.getConstructor();
+			} catch (Exception e) {
+				_constructor = null;
+			}
+			try {
+				_overridesCoerceValue = DbRowMapper.this.getClass().getMethod("coerceValue", Object.class, Class.class, String.class).getDeclaringClass() != DbRowMapper.class;
+			} catch (NoSuchMethodException e) {
+				_overridesCoerceValue = true;
+			}
+		}
 		
-		Number result = null;
-		CharacterSet cset = new CharacterSet("0123456789.");
-		str = cset.stringContainingCharacters(str);
-		try {
-			if(valueClass.equals(java.lang.Integer.class))
-				result = new java.lang.Integer(str);
-			if(valueClass.equals(java.lang.Short.class))
-				result = new java.lang.Short(str);
-			if(valueClass.equals(java.lang.Long.class))
-				result = new java.lang.Long(str);
-			if(valueClass.equals(java.lang.Float.class))
-				result = new java.lang.Float(str);
-			if(valueClass.equals(java.lang.Double.class))
-				result = new java.lang.Double(str);
-			if(valueClass.equals(java.math.BigDecimal.class))
-				result = new java.math.BigDecimal(str);
-			if(valueClass.equals(java.math.BigInteger.class))
-				result = new java.math.BigInteger(str);
-		} catch (Exception e) {
-			DbLogger.rdbms.warn("coerceToNumber(): The value " + value + " seems not to be a number");
+		boolean matches(Map<String, Object> row) {
+			return _rowColumnNames.equals(row.keySet());
+		}
+		
+		Object newInstance() {
+			if(_constructor != null) {
+				try {
+					return _constructor.newInstance();
+				} catch (InvocationTargetException e) {
+					throw new IllegalStateException("Could not instantiate " + _objectClass.getName(), e.getCause());
+				} catch (Exception e) {
+					DbLogger.rdbms.warn("DbRowMapper: could not invoke constructor of " + _objectClass.getName() + ". Falls back to ClassUtils", e);
+				}
+			}
+			return ClassUtils.newInstance(_objectClass);
+		}
+		
+		void initObject(Object obj, Map<String, Object> row) {
+			for(int i = 0; i < _size; i++) {
+				Object o = row.get(_planColumnNames[i]);
+				Object value;
+				if(_planConverters[i] != null)
+					value = _planConverters[i].convertObject(o, _valueClasses[i], _planKeys[i]);
+				else if(_overridesCoerceValue || o instanceof Collection)
+					value = coerceValue(o, _valueClasses[i], _planKeys[i]);
+				else
+					value = _planCoercions[i].coerce(o);
+				_accessors[i].setValue(obj, value);
+			}
 		}
-		return result;
+	}
+	
+	protected DbCoercion coercionForKey(String key, Class<?> valueClass) {
+		DbCoercion coercion = _coercions.get(key);
+		return coercion != null ? coercion : newCoercion(key, valueClass);
+	}
+	
+	private DbCoercion newCoercion(String key, Class<?> valueClass) {
+		DateFormat format = _dateFormats.get(key);
+		if(format == null)
+			format = new SimpleDateFormat("yyyy/MM/dd");
+		return DbCoercion.forValueClass(valueClass, format);
 	}
 	
 	public Object coerceValue(Object value, Class<?> valueClass, String key) {
 		if(value == null)
 			return null;
-		if(valueClass == null)
-			return value.toString();
 		
 		if(value instanceof Collection) {
 			List<Object> values = ListUtils.list();
@@ -109,94 +205,17 @@ public abstract class DbRowMapper {
 			return values;
 		}
 		
-		if(valueClass.isAssignableFrom(value.getClass()))
-			return value;
-		
-		if(valueClass.equals(java.lang.String.class))
-			return value.toString();
-		
-		if(valueClass.equals(java.lang.Integer.class)) {
-			if(!(value instanceof java.lang.Number))
-				return coerceToNumber(value, valueClass);
-			else
-				return new java.lang.Integer(((java.lang.Number) value).intValue());
-		}
-		if(valueClass.equals(java.lang.Short.class)) {
-			if(!(value instanceof java.lang.Number))
-				return coerceToNumber(value, valueClass);
-			else
-				return new java.lang.Short(((java.lang.Number) value).shortValue());
-		}
-		if(valueClass.equals(java.lang.Long.class)) {
-			if(!(value instanceof java.lang.Number))
-				return coerceToNumber(value, valueClass);
-			else
-				return new java.lang.Long(((java.lang.Number) value).longValue());
-		}
-		if(valueClass.equals(java.lang.Float.class)) {
-			if(!(value instanceof java.lang.Number))
-				return coerceToNumber(value, valueClass);
-			else
-				return new java.lang.Float(((java.lang.Number) value).floatValue());
-		}
-		if(valueClass.equals(java.lang.Double.class)) {
-			if(!(value instanceof java.lang.Number))
-				return coerceToNumber(value, valueClass);
-			else
-				return new java.lang.Double(((java.lang.Number) value).doubleValue());
-				
-		}
-		if(valueClass.equals(java.math.BigInteger.class)) {
-			if(!(value instanceof java.lang.Number))
-				return coerceToNumber(value, valueClass);
-			else
-				return new java.math.BigInteger(value.toString());
-		}
-		if(valueClass.equals(java.math.BigDecimal.class)) {
-			if(!(value instanceof java.lang.Number))
-				return coerceToNumber(value, valueClass);
-			else
-				return new java.math.BigDecimal(value.toString());
-		}
-		if(valueClass.equals(java.util.Date.class)) {
-			if(value == null || value.toString().length() == 0)
-				return null;
-			DateFormat format = _dateFormats.get(key);
-			if(format == null)
-				format = new SimpleDateFormat("yyyy/MM/dd");
-			try {
-				return format.parseObject(value.toString());
-			} catch (ParseException e) {
-				DbLogger.rdbms.warn("UniField coerceValue() could not parse date string with format '" + format + "'", e);
-				return null;
-			}
-		}
-		if(valueClass.equals(java.lang.Boolean.class)) {
-			if(!(value instanceof java.lang.Boolean))
-				return new java.lang.Boolean(((Boolean) value).booleanValue());
-			else {
-				String s = value.toString();
-				if("true".equalsIgnoreCase(s) || "yes".equalsIgnoreCase(s) || "1".equals(s))
-					return new java.lang.Boolean(true);
-				else
-					return new java.lang.Boolean(false);
-			}
-		}
-		if(valueClass.equals(java.lang.Byte.class)) {
-		}
-		if(valueClass.equals(java.lang.Character.class)) {
-		}
-		if(valueClass.equals(_NoBytes.getClass())) {
-		}
-		return value;
-
+		return coercionForKey(key, valueClass).coerce(value);
 	}
 	
 	public void registerConverter(ValueConverter converter, String key) {
 		_converters.put(key, converter);
+		_plan = null;
 	}
 	public void registerDateFormat(DateFormat format, String key) {
 		_dateFormats.put(key, format);
+		prepareCoercions();
+		_plan = null;
 	}
 	
 	public interface ValueConverter {
@@ -1,12 +1,18 @@
 package rdbms;
 
+import java.util.List;
 import java.util.Map;
 
+import rdbms.util.DbSQLTemplate;
+
 public class DbSQLCommand {
 
 	DbEntity _entity;
 	String _sql;
 	Map<String, Object> _row;
+	List<Map<String, Object>> _rows;
+	List<Object[]> _parameterRows;
+	String _template;
 	
 	public DbSQLCommand(DbEntity entity, String sql) {
 		_entity = entity;
@@ -16,6 +22,12 @@ public class DbSQLCommand {
 	public String sql() {
 		return _sql;
 	}
+	
+	public String template() {
+		if(_template == null)
+			_template = DbSQLTemplate.normalize(_sql);
+		return _template;
+	}
 
 	public void setRow(Map<String, Object> row) {
 		_row = row;
@@ -23,6 +35,18 @@ public class DbSQLCommand {
 	public Map<String, Object> row() {
 		return _row;
 	}
+	public void setRows(List<Map<String, Object>> rows) {
+		_rows = rows;
+	}
+	public List<Map<String, Object>> rows() {
+		return _rows;
+	}
+	public void setParameterRows(List<Object[]> parameterRows) {
+		_parameterRows = parameterRows;
+	}
+	public List<Object[]> parameterRows() {
+		return _parameterRows;
+	}
 	public DbEntity entity() {
 		return _entity;
 	}
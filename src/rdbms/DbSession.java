@@ -3,28 +3,44 @@ package rdbms;
 import java.lang.reflect.Constructor;
 import java.sql.SQLException;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import rdbms.util.DbLogger;
+import rdbms.util.DbMetrics;
+import rdbms.util.DbSQLTemplate;
 import core.util.ClassUtils;
 import core.util.ListUtils;
 import core.util.MapUtils;
-import core.util.Perf;
 import core.util.StringUtils;
 
 public class DbSession {
 	protected DbAdaptor _adaptor;
+	private long _statementCount;
 	protected DbModel _model;
 	private Map<DbEntityID, DbSnapshot> _snapshots;
 	private List<DbEntityID> _entityIds;
+	private Map<DbEntityID, Object> _trackedObjects;
 	protected DbEntityCache _entityCache;
 
 	private static Map<String, String> _adaptorClassNames = null;
 	static {
-		_adaptorClassNames = MapUtils.map();
+		_adaptorClassNames = new ConcurrentHashMap<String, String>();
 		_adaptorClassNames.put("org.postgresql.Driver", "rdbms.adaptor.PGSQLAdaptor");
 		_adaptorClassNames.put("com.mysql.jdbc.Driver", "rdbms.adaptor.MySQLAdaptor");
+		_adaptorClassNames.put("org.h2.Driver", "rdbms.adaptor.H2Adaptor");
+	}
+	
+	public static void registerAdaptorClassName(String driverClass, String adaptorClass) {
+		_adaptorClassNames.put(driverClass, adaptorClass);
+	}
+	
+	public static String adaptorClassNameForDriver(String driverClass) {
+		return _adaptorClassNames.get(driverClass);
 	}
 	
 	public DbSession(DbModel model) {
@@ -34,12 +50,17 @@ public class DbSession {
 
 	private DbAdaptor createAdaptor() {
 		DbConnectionInfo info = _model.connectionInfo();
-		String driverClass = info.driverClass();
-		if(StringUtils.nullOrEmptyOrBlank(driverClass))
-			return null;
-		String adaptorClass = _adaptorClassNames.get(driverClass);
-		if(StringUtils.nullOrEmptyOrBlank(adaptorClass))
+		String adaptorClass = info.adaptorClass();
+		if(StringUtils.nullOrEmptyOrBlank(adaptorClass)) {
+			String driverClass = info.driverClass();
+			if(StringUtils.nullOrEmptyOrBlank(driverClass))
+				return null;
+			adaptorClass = _adaptorClassNames.get(driverClass);
+		}
+		if(StringUtils.nullOrEmptyOrBlank(adaptorClass)) {
+			DbLogger.rdbms_adaptor.error("No adaptor registered for driver " + info.driverClass() + ".");
 			return null;
+		}
 		Class<?> aClass = ClassUtils.classForName(adaptorClass, DbAdaptor.class);
 		if(aClass == null)
 			return null;
@@ -78,6 +99,8 @@ public class DbSession {
 			_snapshots = MapUtils.map();
 			if(_entityIds == null)
 			_entityIds = ListUtils.list();
+			if(_trackedObjects == null)
+			_trackedObjects = new LinkedHashMap<DbEntityID, Object>();
 			if(_entityCache == null)
 			_entityCache = new DbEntityCache();
 		}
@@ -90,6 +113,8 @@ public class DbSession {
 			_snapshots = null;
 			_entityIds.clear();
 			_entityIds = null;
+			_trackedObjects.clear();
+			_trackedObjects = null;
 			_entityCache.clear();
 		}
 	}
@@ -116,6 +141,73 @@ public class DbSession {
 			_snapshots.remove(entityId);
 			snapshot = null;
 		}
+		untrackObject(entityId);
+	}
+	
+	public int forgetSnapshotsMatching(DbEntity entity, DbPredicate predicate) {
+		if(_snapshots == null)
+			return 0;
+		List<DbEntityID> entityIds = ListUtils.list();
+		for(DbSnapshot r : _snapshots.values()) {
+			if(r._entityId.entity().isKindOfEntity(entity) && (predicate == null || predicate.matchesToRow(r._snapshot, entity)))
+				entityIds.add(r._entityId);
+		}
+		for(DbEntityID entityId : entityIds) {
+			forgetSnapshot(entityId);
+		}
+		if(_entityCache != null)
+			_entityCache.removeMatching(entity, predicate);
+		return entityIds.size();
+	}
+	
+	public List<Object> loadedObjectsMatching(DbEntity entity, DbPredicate predicate) {
+		Map<Object, Boolean> found = new IdentityHashMap<Object, Boolean>();
+		List<Object> objects = ListUtils.list();
+		if(_entityCache != null) {
+			for(Object object : _entityCache.objectsMatching(entity, predicate)) {
+				if(found.put(object, Boolean.TRUE) == null)
+					objects.add(object);
+			}
+		}
+		if(_trackedObjects != null) {
+			for(Map.Entry<DbEntityID, Object> entry : _trackedObjects.entrySet()) {
+				Object object = entry.getValue();
+				if(!entry.getKey().entity().isKindOfEntity(entity) || found.containsKey(object))
+					continue;
+				if(predicate == null || predicate.matches(object)) {
+					found.put(object, Boolean.TRUE);
+					objects.add(object);
+				}
+			}
+		}
+		return objects;
+	}
+	
+	public void trackObject(DbEntityID entityId, Object object) {
+		if(_trackedObjects != null && object != null) {
+			_trackedObjects.put(entityId, object);
+			DbSnapshot snapshot = _snapshots.get(entityId);
+			if(snapshot != null && snapshot._values == null)
+				snapshot.prepareValues();
+		}
+	}
+	
+	public void untrackObject(DbEntityID entityId) {
+		if(_trackedObjects != null)
+			_trackedObjects.remove(entityId);
+	}
+	
+	public Map<DbEntityID, Object> trackedObjects() {
+		if(_trackedObjects == null)
+			return Collections.emptyMap();
+		return _trackedObjects;
+	}
+	
+	public boolean hasChanged(DbEntityID entityId, Object object) {
+		DbSnapshot snapshot = _snapshots.get(entityId);
+		if(snapshot == null)
+			return false;
+		return snapshot.isChanged(object);
 	}
 	
 	public Map<String, Object> snapshotForEntityID(DbEntityID entityId) {
@@ -190,6 +282,10 @@ public class DbSession {
 	
 	public Object cachedObject(DbEntityID entityId) {
 		Object object = _entityCache.get(entityId);
+		if(object != null)
+			DbMetrics.recordCacheHit(entityId.entity().entityName());
+		else
+			DbMetrics.recordCacheMiss(entityId.entity().entityName());
 		return object;
 	}
 	public Object cachedObject(DbEntity entity, String key, Object value) {
@@ -226,16 +322,120 @@ public class DbSession {
 		_entityCache.remove(entityId);
 	}
 	
+	public long statementCount() {
+		return _statementCount;
+	}
+	
 	public int executeUpdate(DbSQLCommand command) throws SQLException {
-		return _adaptor.executeUpdate(command.sql());
+		_statementCount++;
+		long start = System.nanoTime();
+		int count = _adaptor.executeUpdate(command.sql());
+		didExecute(command, start, count);
+		return count;
+	}
+
+	public int[] executeBatch(List<DbSQLCommand> commands) throws SQLException {
+		_statementCount += commands.size();
+		List<String> sqls = ListUtils.list(commands.size());
+		for(DbSQLCommand command : commands) {
+			sqls.add(command.sql());
+		}
+		long start = System.nanoTime();
+		int counts[] = _adaptor.executeBatch(sqls);
+		if(!commands.isEmpty()) {
+			long elapsed = System.nanoTime() - start;
+			int total = 0;
+			DbStatementStatistics statistics = _adaptor.statementStatistics();
+			boolean recording = statistics.isEnabled();
+			for(int i = 0, size = commands.size(); i < size; i++) {
+				int count = i < counts.length && counts[i] > 0 ? counts[i] : 0;
+				if(recording)
+					statistics.record(commands.get(i).template(), elapsed / size, count);
+				total += count;
+			}
+			checkSlowStatement(commands.get(0), elapsed, total);
+		}
+		return counts;
+	}
+
+	public List<Object> executeInsert(DbSQLCommand command, String[] keyColumnNames) throws SQLException {
+		_statementCount++;
+		long start = System.nanoTime();
+		List<Object> keys = _adaptor.executeInsert(command.sql(), keyColumnNames);
+		didExecute(command, start, keys.size());
+		return keys;
+	}
+
+	public List<Object> executeInsertBatch(DbSQLCommand command, String[] keyColumnNames) throws SQLException {
+		_statementCount += command.parameterRows().size();
+		long start = System.nanoTime();
+		List<Object> keys = _adaptor.executeInsertBatch(command.sql(), command.parameterRows(), keyColumnNames);
+		didExecute(command, start, keys.size());
+		return keys;
 	}
 
 	public List<Map<String, Object>> executeQuery(DbSQLCommand command) throws SQLException {
-		Perf p = Perf.newPerf("Adaptor " + _adaptor.toString() + " got the result of SQL \"" + command.sql() + "\"");
+		_statementCount++;
+		long start = System.nanoTime();
 		List<Map<String, Object>> rows = _adaptor.executeQuery(command.sql());
-		p.stop();
+		DbEvents.queryExecuted(command.entity(), command.sql(), rows.size(), start);
+		didExecute(command, start, rows.size());
 		return rows;
 	}
+	
+	private static final int MaxCallerFrames = 8;
+	
+	private void didExecute(DbSQLCommand command, long startNanos, int rows) {
+		long elapsed = System.nanoTime() - startNanos;
+		DbStatementStatistics statistics = _adaptor.statementStatistics();
+		if(statistics.isEnabled())
+			statistics.record(command.template(), elapsed, rows);
+		checkSlowStatement(command, elapsed, rows);
+	}
+	
+	private void checkSlowStatement(DbSQLCommand command, long elapsedNanos, int rows) {
+		DbEntity entity = command.entity();
+		long threshold = entity != null ? entity.slowQueryThreshold() : _model.slowQueryThreshold();
+		if(threshold < 0)
+			return;
+		long millis = elapsedNanos / 1000000L;
+		if(millis < threshold)
+			return;
+		logSlowStatement(command, millis, rows);
+	}
+	
+	private void logSlowStatement(DbSQLCommand command, long millis, int rows) {
+		DbSQLTemplate template = DbSQLTemplate.parse(command.sql());
+		StringBuffer buffer = new StringBuffer();
+		buffer.append("[SLOW] " + millis + "ms; rows=" + rows);
+		if(command.entity() != null)
+			buffer.append("; entity=" + command.entity().entityName());
+		buffer.append("\n\ttemplate: " + template.template());
+		if(_model.redactsSlowQueryValues())
+			buffer.append("\n\tvalues: <" + template.values().size() + " redacted>");
+		else
+			buffer.append("\n\tvalues: " + template.values());
+		buffer.append("\n\tcaller:");
+		int frames = 0;
+		for(StackTraceElement frame : new Throwable().getStackTrace()) {
+			String className = frame.getClassName();
+			if(className.startsWith("rdbms.") || className.startsWith("java.") || className.startsWith("sun."))
+				continue;
+			buffer.append("\n\t\tat " + frame);
+			if(++frames >= MaxCallerFrames)
+				break;
+		}
+		if(_model.explainsSlowQueries() && command.sql().trim().regionMatches(true, 0, "SELECT", 0, 6)) {
+			List<String> plan = _adaptor.explain(command.sql());
+			if(plan != null) {
+				buffer.append("\n\tplan:");
+				for(String line : plan) {
+					buffer.append("\n\t\t" + line);
+				}
+			}
+		}
+		DbLogger.rdbms_slow.warn(buffer.toString());
+	}
 
 	public void beginTransaction() throws Exception {
 		_adaptor.beginTransaction();
@@ -1,26 +1,34 @@
 package rdbms;
 
+import java.util.Date;
 import java.util.Map;
 
+import core.util.MapUtils;
+
 
 public class DbSnapshot {
 	long _timestamp;
 	Map<String, Object> _snapshot;
 	DbEntityID _entityId;
+	Object[] _values;
 	
 	public DbSnapshot(Map<String, Object> row, DbEntityID entityId) {
 		this(row, entityId, System.currentTimeMillis());
 	}
 	public DbSnapshot(Map<String, Object> row, DbEntityID entityId, long timestamp) {
 		_timestamp = timestamp;
-		_snapshot = row;
+		_snapshot = copyRow(row);
 		_entityId = entityId;
 	}
 	public Map<String, Object> snapshot() {
 		return _snapshot;
 	}
 	public void setSnapshot(Map<String, Object> row) {
-		_snapshot = row;
+		boolean prepared = _values != null;
+		_snapshot = copyRow(row);
+		_values = null;
+		if(prepared)
+			prepareValues();
 	}
 	public void setTimestamp(long timestamp) {
 		_timestamp = timestamp;
@@ -28,5 +36,54 @@ public class DbSnapshot {
 	public DbEntityID entityId() {
 		return _entityId;
 	}
+	
+	public boolean isChanged(Object object) {
+		DbEntity entity = _entityId.entity();
+		DbField[] fields = entity.fields();
+		DbPropertyAccessor[] accessors = entity.accessors();
+		if(_values == null)
+			prepareValues();
+		for(int i = 0; i < fields.length; i++) {
+			if(fields[i].isPrimaryKey())
+				continue;
+			if(!DbField.equalValues(_values[i], accessors[i].getValue(object)))
+				return true;
+		}
+		return false;
+	}
+	
+	void prepareValues() {
+		DbField[] fields = _entityId.entity().fields();
+		Object[] values = new Object[fields.length];
+		for(int i = 0; i < fields.length; i++) {
+			values[i] = copyValue(fields[i].coerceValue(_snapshot.get(fields[i].columnName())));
+		}
+		_values = values;
+	}
+	
+	static Map<String, Object> copyRow(Map<String, Object> row) {
+		if(row == null)
+			return null;
+		Map<String, Object> copy = null;
+		for(Map.Entry<String, Object> entry : row.entrySet()) {
+			Object value = entry.getValue();
+			if(!(value instanceof Date) && !(value instanceof byte[]))
+				continue;
+			if(copy == null) {
+				copy = MapUtils.map();
+				copy.putAll(row);
+			}
+			copy.put(entry.getKey(), copyValue(value));
+		}
+		return copy != null ? copy : row;
+	}
+	
+	static Object copyValue(Object value) {
+		if(value instanceof Date)
+			return ((Date) value).clone();
+		if(value instanceof byte[])
+			return ((byte[]) value).clone();
+		return value;
+	}
 
 }
@@ -0,0 +1,136 @@
+package rdbms;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class DbStatementStatistics {
+
+	private static final ConcurrentMap<String, DbStatementStatistics> _statistics = new ConcurrentHashMap<String, DbStatementStatistics>();
+	
+	private final ConcurrentMap<String, Entry> _entries = new ConcurrentHashMap<String, Entry>();
+	private volatile boolean _enabled = true;
+	
+	public static DbStatementStatistics forModel(DbModel model) {
+		String name = model != null && model.name() != null ? model.name() : "";
+		DbStatementStatistics statistics = _statistics.get(name);
+		if(statistics == null) {
+			DbStatementStatistics newStatistics = new DbStatementStatistics();
+			statistics = _statistics.putIfAbsent(name, newStatistics);
+			if(statistics == null)
+				statistics = newStatistics;
+		}
+		return statistics;
+	}
+	
+	public boolean isEnabled() {
+		return _enabled;
+	}
+	
+	public void setEnabled(boolean enabled) {
+		_enabled = enabled;
+	}
+	
+	public void record(String template, long driverNanos, long rows) {
+		if(!_enabled || template == null)
+			return;
+		entry(template).record(driverNanos, rows);
+	}
+	
+	public void recordMapping(String template, long mappingNanos) {
+		if(!_enabled || template == null)
+			return;
+		entry(template)._mappingNanos.addAndGet(mappingNanos);
+	}
+	
+	private Entry entry(String template) {
+		Entry entry = _entries.get(template);
+		if(entry == null) {
+			Entry newEntry = new Entry(template);
+			entry = _entries.putIfAbsent(template, newEntry);
+			if(entry == null)
+				entry = newEntry;
+		}
+		return entry;
+	}
+	
+	public Entry entryForTemplate(String template) {
+		return _entries.get(template);
+	}
+	
+	public List<Entry> entries() {
+		return new ArrayList<Entry>(_entries.values());
+	}
+	
+	public List<Entry> topEntries(int limit) {
+		List<Entry> entries = entries();
+		Collections.sort(entries, new Comparator<Entry>() {
+			public int compare(Entry e1, Entry e2) {
+				long t1 = e1.totalNanos() + e1.mappingNanos();
+				long t2 = e2.totalNanos() + e2.mappingNanos();
+				return t1 > t2 ? -1 : t1 < t2 ? 1 : 0;
+			}
+		});
+		return entries.size() > limit ? entries.subList(0, limit) : entries;
+	}
+	
+	public void reset() {
+		_entries.clear();
+	}
+	
+	public static class Entry {
+		final String _template;
+		final AtomicLong _calls = new AtomicLong();
+		final AtomicLong _totalNanos = new AtomicLong();
+		final AtomicLong _maxNanos = new AtomicLong();
+		final AtomicLong _rows = new AtomicLong();
+		final AtomicLong _mappingNanos = new AtomicLong();
+		
+		Entry(String template) {
+			_template = template;
+		}
+		
+		void record(long nanos, long rows) {
+			_calls.incrementAndGet();
+			_totalNanos.addAndGet(nanos);
+			_rows.addAndGet(rows);
+			long max = _maxNanos.get();
+			while(nanos > max && !_maxNanos.compareAndSet(max, nanos)) {
+				max = _maxNanos.get();
+			}
+		}
+		
+		public String template() {
+			return _template;
+		}
+		public long calls() {
+			return _calls.get();
+		}
+		public long totalNanos() {
+			return _totalNanos.get();
+		}
+		public long maxNanos() {
+			return _maxNanos.get();
+		}
+		public long rows() {
+			return _rows.get();
+		}
+		public long mappingNanos() {
+			return _mappingNanos.get();
+		}
+		public long meanNanos() {
+			long calls = calls();
+			return calls > 0 ? totalNanos() / calls : 0L;
+		}
+		
+		@Override
+		public String toString() {
+			return "{template=" + _template + "; calls=" + calls() + "; totalMillis=" + totalNanos() / 1000000L + "; meanMicros=" + meanNanos() / 1000L 
+					+ "; maxMicros=" + maxNanos() / 1000L + "; rows=" + rows() + "; mappingMillis=" + mappingNanos() / 1000000L + "}";
+		}
+	}
+}
@@ -1,20 +1,35 @@
 package rdbms;
 
+import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
-import core.util.ListUtils;
-import core.util.Perf;
+import rdbms.util.DbLogger;
+import rdbms.util.DbMetrics;
 import core.util.Selector;
 
 public class DbUpdater extends DbAccess {
 
+	public enum OperationOrder {
+		Registration, Dependency
+	}
+
 	private boolean _isActive = false;
-	private List<DbOperation> _inserts = ListUtils.list();
-	private List<DbOperation> _updates = ListUtils.list();
-	private List<DbOperation> _deletes = ListUtils.list();
-	private boolean _hasChanges = false;
+	private Map<Object, DbOperation> _inserts = new IdentityHashMap<Object, DbOperation>();
+	private Map<Object, DbOperation> _updates = new IdentityHashMap<Object, DbOperation>();
+	private Map<Object, DbOperation> _deletes = new IdentityHashMap<Object, DbOperation>();
 	private boolean _autoCommit = false;
+	private OperationOrder _operationOrder = OperationOrder.Registration;
+	private static final int MaxInsertBatchSize = 500;
+	private static final int MaxUpdateBatchSize = 500;
 	private static Selector validateForSaveSelector = new Selector("validateForSave", new Class[]{DbContext.class});
 	private static Selector validateForDeleteSelector = new Selector("validateForDelete", new Class[]{DbContext.class});
 	
@@ -29,6 +44,17 @@ public class DbUpdater extends DbAccess {
 		_autoCommit = flag;
 	}
 	
+	public OperationOrder operationOrder() {
+		return _operationOrder;
+	}
+	public void setOperationOrder(OperationOrder order) {
+		_operationOrder = order != null ? order : OperationOrder.Registration;
+	}
+	
+	public boolean isActive() {
+		return _isActive;
+	}
+	
 	public void begin() throws Exception {
 		if(!_isActive) {
 			if(!_autoCommit)
@@ -59,83 +85,291 @@ public class DbUpdater extends DbAccess {
 		_inserts.clear();
 		_updates.clear();
 		_deletes.clear();
-		_hasChanges  = false;
 	}
 	
 	public boolean hasChanges() {
-		return _hasChanges;
+		return !_inserts.isEmpty() || !_updates.isEmpty() || !_deletes.isEmpty();
 	}
 	
-	private DbOperation findOperation(DbOperation opr, List<DbOperation> operations) {
-		for(DbOperation operation : operations) {
-			if(operation.object().equals(opr.object()) && operation.entity().equals(opr.entity()))
-				return operation;
-		}
-		return null;
+	public boolean isRegistered(Object object) {
+		return _inserts.containsKey(object) || _updates.containsKey(object) || _deletes.containsKey(object);
 	}
 	
 	public void insert(Object object, DbContext DbContext) {
-		DbEntity entity = DbContext.entityForObject(object);
-		DbOperation opr = new DbOperation.Insert(object, entity);
-		DbOperation found = findOperation(opr, _inserts);
+		DbOperation found = _inserts.get(object);
 		if(found != null) {
-			found._millis = System.currentTimeMillis();
-			found._object = object;
+			found.touch();
 		} else {
-			_inserts.add(new DbOperation.Insert(object, entity));
+			DbEntity entity = DbContext.entityForObject(object);
+			_inserts.put(object, new DbOperation.Insert(object, entity));
 		}
-		_hasChanges = true;
 	}
 
 	public void delete(Object object, DbContext DbContext) {
-		DbEntity entity = DbContext.entityForObject(object);
-		DbOperation opr = new DbOperation.Delete(object, entity);
-		DbOperation found = findOperation(opr, _deletes);
+		_updates.remove(object);
+		if(_inserts.remove(object) != null) {
+			DbLogger.rdbms_command.debug("Pending insert of " + object + " cancelled by delete");
+			return;
+		}
+		DbOperation found = _deletes.get(object);
 		if(found != null) {
-			found._millis = System.currentTimeMillis();
-			found._object = object;
+			found.touch();
 		} else {
-			_deletes.add(new DbOperation.Delete(object, entity));
+			DbEntity entity = DbContext.entityForObject(object);
+			_deletes.put(object, new DbOperation.Delete(object, entity));
 		}
-		_hasChanges = true;
 	}
 
 	public void update(Object object, DbContext DbContext) {
-		DbEntity entity = DbContext.entityForObject(object);
-		DbOperation opr = new DbOperation.Update(object, entity);
-		DbOperation found = findOperation(opr, _updates);
+		if(_inserts.containsKey(object) || _deletes.containsKey(object))
+			return;
+		DbOperation found = _updates.get(object);
 		if(found != null) {
-			found._millis = System.currentTimeMillis();
-			found._object = object;
+			found.touch();
 		} else {
-			_updates.add(new DbOperation.Update(object, entity));
+			DbEntity entity = DbContext.entityForObject(object);
+			_updates.put(object, new DbOperation.Update(object, entity));
 		}
-		_hasChanges = true;
 	}
 
 	private List<DbOperation> orderedOperations() {
+		if(_operationOrder == OperationOrder.Dependency) {
+			List<DbEntity> entities = dependencyOrderedEntities();
+			if(entities != null)
+				return dependencyOrderedOperations(entities);
+		}
 		List<DbOperation> operations = new ArrayList<DbOperation>();
-		operations.addAll(DbOperation.sortedOperations(_inserts));
-		operations.addAll(DbOperation.sortedOperations(_updates));
-		operations.addAll(DbOperation.sortedOperations(_deletes));
+		operations.addAll(DbOperation.sortedOperations(_inserts.values()));
+		operations.addAll(DbOperation.sortedOperations(_updates.values()));
+		operations.addAll(DbOperation.sortedOperations(_deletes.values()));
+		return operations;
+	}
+	
+	private List<DbOperation> dependencyOrderedOperations(List<DbEntity> entities) {
+		Map<DbEntity, List<DbOperation>> inserts = operationsByEntity(_inserts.values());
+		Map<DbEntity, List<DbOperation>> updates = operationsByEntity(_updates.values());
+		Map<DbEntity, List<DbOperation>> deletes = operationsByEntity(_deletes.values());
+		List<DbOperation> operations = new ArrayList<DbOperation>(_inserts.size() + _updates.size() + _deletes.size());
+		for(DbEntity entity : entities) {
+			addSortedByPrimaryKey(operations, inserts.get(entity));
+		}
+		for(DbEntity entity : entities) {
+			addSortedByPrimaryKey(operations, updates.get(entity));
+		}
+		for(int i = entities.size() - 1; i >= 0; i--) {
+			addSortedByPrimaryKey(operations, deletes.get(entities.get(i)));
+		}
 		return operations;
 	}
 	
+	private Map<DbEntity, List<DbOperation>> operationsByEntity(Collection<DbOperation> operations) {
+		Map<DbEntity, List<DbOperation>> map = new HashMap<DbEntity, List<DbOperation>>();
+		for(DbOperation operation : operations) {
+			List<DbOperation> list = map.get(operation.entity());
+			if(list == null) {
+				list = new ArrayList<DbOperation>();
+				map.put(operation.entity(), list);
+			}
+			list.add(operation);
+		}
+		return map;
+	}
+	
+	private void addSortedByPrimaryKey(List<DbOperation> operations, List<DbOperation> entityOperations) {
+		if(entityOperations == null)
+			return;
+		Collections.sort(entityOperations, new Comparator<DbOperation>() {
+			@Override
+			public int compare(DbOperation arg0, DbOperation arg1) {
+				int result = comparePrimaryKeys(arg0, arg1);
+				if(result != 0)
+					return result;
+				return arg0.sequence() > arg1.sequence() ? 1 : arg0.sequence() < arg1.sequence() ? -1 : 0;
+			}});
+		operations.addAll(entityOperations);
+	}
+	
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private int comparePrimaryKeys(DbOperation arg0, DbOperation arg1) {
+		for(DbField field : arg0.entity().primaryKeyFields()) {
+			Object v0 = field.accessor().getValue(arg0.object());
+			Object v1 = field.accessor().getValue(arg1.object());
+			if(v0 == null || v1 == null) {
+				if(v0 != v1)
+					return v0 == null ? 1 : -1;
+				continue;
+			}
+			int result;
+			if(!v0.getClass().equals(v1.getClass()))
+				result = v0.getClass().getName().compareTo(v1.getClass().getName());
+			else if(v0 instanceof Comparable)
+				result = ((Comparable) v0).compareTo(v1);
+			else
+				result = String.valueOf(v0).compareTo(String.valueOf(v1));
+			if(result != 0)
+				return result;
+		}
+		return 0;
+	}
+	
+	private List<DbEntity> dependencyOrderedEntities() {
+		Set<DbEntity> entities = new LinkedHashSet<DbEntity>();
+		for(DbOperation operation : DbOperation.sortedOperations(_inserts.values()))
+			entities.add(operation.entity());
+		for(DbOperation operation : DbOperation.sortedOperations(_updates.values()))
+			entities.add(operation.entity());
+		for(DbOperation operation : DbOperation.sortedOperations(_deletes.values()))
+			entities.add(operation.entity());
+		
+		Map<DbEntity, Set<DbEntity>> dependents = new HashMap<DbEntity, Set<DbEntity>>();
+		Map<DbEntity, Integer> inDegrees = new HashMap<DbEntity, Integer>();
+		for(DbEntity entity : entities) {
+			dependents.put(entity, new LinkedHashSet<DbEntity>());
+			inDegrees.put(entity, 0);
+		}
+		for(DbEntity entity : entities) {
+			if(entity.relationships() == null)
+				continue;
+			for(DbRelationship relationship : entity.relationships()) {
+				DbEntity referenced = relationship.referencedEntity();
+				DbEntity dependent = relationship.dependentEntity();
+				if(referenced == null || dependent == null || referenced == dependent)
+					continue;
+				if(!entities.contains(referenced) || !entities.contains(dependent))
+					continue;
+				if(dependents.get(referenced).add(dependent))
+					inDegrees.put(dependent, inDegrees.get(dependent) + 1);
+			}
+		}
+		
+		List<DbEntity> ordered = new ArrayList<DbEntity>(entities.size());
+		List<DbEntity> ready = new ArrayList<DbEntity>();
+		for(DbEntity entity : entities) {
+			if(inDegrees.get(entity) == 0)
+				ready.add(entity);
+		}
+		while(!ready.isEmpty()) {
+			DbEntity entity = ready.remove(0);
+			ordered.add(entity);
+			for(DbEntity dependent : dependents.get(entity)) {
+				int degree = inDegrees.get(dependent) - 1;
+				inDegrees.put(dependent, degree);
+				if(degree == 0)
+					ready.add(dependent);
+			}
+		}
+		if(ordered.size() < entities.size()) {
+			DbLogger.rdbms_command.warn("Relationships between entities to save are cyclic. Operations are executed in registration order.");
+			return null;
+		}
+		return ordered;
+	}
+	
+	private void prepareForInserts(List<DbOperation> operations, DbContext DbContext) {
+		Map<DbEntity, Integer> counts = new HashMap<DbEntity, Integer>();
+		for(DbOperation operation : operations) {
+			if(!DbOperation.isInsertOperation(operation) || operation.entity().pkGenerator() == null || operation.entity().hasDatabaseGeneratedKey())
+				continue;
+			if(!((DbRowID) operation.entity().primaryKeyForObject(operation.object())).hasNullValue())
+				continue;
+			Integer count = counts.get(operation.entity());
+			counts.put(operation.entity(), count != null ? count + 1 : 1);
+		}
+		for(Map.Entry<DbEntity, Integer> entry : counts.entrySet()) {
+			if(entry.getValue() > 1)
+				entry.getKey().pkGenerator().prepareForInserts(entry.getKey(), entry.getValue(), DbContext);
+		}
+	}
+	
+	private void executeUpdates(List<DbOperation.Update> updates, DbContext DbContext) throws Exception {
+		List<DbOperation.Update> prepared = new ArrayList<DbOperation.Update>(updates.size());
+		List<DbSQLCommand> commands = new ArrayList<DbSQLCommand>(updates.size());
+		for(DbOperation.Update update : updates) {
+			DbSQLCommand command = update.prepareInContext(DbContext);
+			if(command != null) {
+				prepared.add(update);
+				commands.add(command);
+			}
+		}
+		if(commands.isEmpty())
+			return;
+		long start = DbMetrics.start();
+		int counts[];
+		if(commands.size() == 1)
+			counts = new int[]{session().executeUpdate(commands.get(0))};
+		else
+			counts = session().executeBatch(commands);
+		DbMetrics.record(prepared.get(0).entity().entityName(), DbMetrics.Operation.Update, start);
+		checkUpdateCounts(prepared, counts);
+		for(DbOperation.Update update : prepared) {
+			update.didExecuteInContext(DbContext);
+		}
+	}
+	
+	private void checkUpdateCounts(List<DbOperation.Update> updates, int[] counts) {
+		List<DbEntityID> staleEntityIds = new ArrayList<DbEntityID>();
+		for(int i = 0, size = updates.size(); i < size; i++) {
+			int count = i < counts.length ? counts[i] : Statement.SUCCESS_NO_INFO;
+			if(count == 0)
+				staleEntityIds.add(updates.get(i).entityId());
+		}
+		if(!staleEntityIds.isEmpty())
+			throw new DbOptimisticLockException("Rows were changed or deleted by another transaction", staleEntityIds);
+	}
+	
 	public void executeDatabaseOperations(DbContext DbContext) {
 		List<DbOperation> orderedOperations = this.orderedOperations();
 		if(DbContext.shouldFilterOperations())
 			orderedOperations = DbContext.filterOperations(orderedOperations);
 		if(DbContext.shouldOrderOperations())
 			orderedOperations = DbContext.orderOperations(orderedOperations);
+		prepareForInserts(orderedOperations, DbContext);
 		int numInsert = 0;
 		int numUpdate = 0;
 		int numDelete = 0;
 		int numOps = orderedOperations.size();
-		Perf p = Perf.newPerf("Finished database operations");
+		long start = DbMetrics.start();
+		long eventStart = DbEvents.start();
+		long statementCount = session().statementCount();
 		DbOperation lastOperation = null;
 		try {
-			for(DbOperation operation : orderedOperations) {
+			for(int i = 0; i < numOps; i++) {
+				DbOperation operation = orderedOperations.get(i);
 				lastOperation = operation;
+				if(DbOperation.isInsertOperation(operation) && operation.entity().hasDatabaseGeneratedKey()) {
+					List<DbOperation> batch = new ArrayList<DbOperation>();
+					for(; i < numOps && batch.size() < MaxInsertBatchSize; i++) {
+						DbOperation insert = orderedOperations.get(i);
+						if(!DbOperation.isInsertOperation(insert) || insert.entity() != operation.entity())
+							break;
+						lastOperation = insert;
+						if(Selector.objectRespondsTo(insert.object(), validateForSaveSelector)) {
+							validateForSaveSelector.invoke(insert.object(), new Object[]{DbContext});
+						}
+						batch.add(insert);
+					}
+					i--;
+					DbOperation.Insert.executeInsertsInContext(batch, DbContext);
+					numInsert += batch.size();
+					continue;
+				}
+				if(DbOperation.isUpdateOperation(operation) && operation.entity().checksVersion()) {
+					List<DbOperation.Update> batch = new ArrayList<DbOperation.Update>();
+					for(; i < numOps && batch.size() < MaxUpdateBatchSize; i++) {
+						DbOperation update = orderedOperations.get(i);
+						if(!DbOperation.isUpdateOperation(update) || update.entity() != operation.entity())
+							break;
+						lastOperation = update;
+						if(Selector.objectRespondsTo(update.object(), validateForSaveSelector)) {
+							validateForSaveSelector.invoke(update.object(), new Object[]{DbContext});
+						}
+						batch.add((DbOperation.Update) update);
+					}
+					i--;
+					executeUpdates(batch, DbContext);
+					numUpdate += batch.size();
+					continue;
+				}
 				if(DbOperation.isInsertOperation(operation)) {
 					if(Selector.objectRespondsTo(operation.object(), validateForSaveSelector)) {
 						validateForSaveSelector.invoke(operation.object(), new Object[]{DbContext});
@@ -161,21 +395,21 @@ public class DbUpdater extends DbAccess {
 		} catch (DbValidationException invalid) {
 			invalid.setOperation(lastOperation);
 			throw invalid;
+		} catch (DbOptimisticLockException conflict) {
+			throw conflict;
 		} catch (Exception e) {
 			throw new IllegalStateException(lastOperation.toString(), e);
 		} finally {
-			p.stop("Total " + numOps + " operations (inserts=" + numInsert + ", updates=" + numUpdate + ", deletes=" + numDelete);
+			long statements = session().statementCount() - statementCount;
+			DbMetrics.recordSave(start, statements);
+			DbEvents.saveExecuted(numOps, statements, eventStart);
+			if(DbLogger.rdbms_perf.isDebugEnabled())
+				DbLogger.rdbms_perf.debug("Total " + numOps + " operations (inserts=" + numInsert + ", updates=" + numUpdate + ", deletes=" + numDelete + ", statements=" + statements + ")");
 		}
 	}
 
 	public void remove(Object object, DbContext dbContext) {
-		DbEntity entity = dbContext.entityForObject(object);
-		for(DbOperation opr : _inserts) {
-			if(opr.object().equals(object) && opr.entity().equals(entity)) {
-				_inserts.remove(opr);
-				break;
-			}
-		}
+		_inserts.remove(object);
 	}
 
 }
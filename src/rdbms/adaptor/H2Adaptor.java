@@ -0,0 +1,67 @@
+package rdbms.adaptor;
+
+import java.sql.Connection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import rdbms.DbAdaptor;
+import rdbms.DbEntity;
+import rdbms.DbField;
+import rdbms.DbModel;
+import rdbms.DbQuerySpecification;
+import rdbms.command.UnionSelect;
+
+public class H2Adaptor extends DbAdaptor {
+
+	private volatile Map<String, String> _columnNames;
+
+	public H2Adaptor(DbModel model) {
+		super(model);
+	}
+
+	/*
+	 * H2 reports unquoted identifiers in upper case. Result columns are mapped back to the model's column names.
+	 */
+	@Override
+	protected String resultColumnName(String columnName) {
+		Map<String, String> names = _columnNames;
+		if(names == null) {
+			names = new ConcurrentHashMap<String, String>();
+			for(DbEntity entity : model().entities()) {
+				for(DbField field : entity.fields()) {
+					names.put(field.columnName().toUpperCase(), field.columnName());
+				}
+			}
+			names.put(UnionSelect.EntityTypeColumnName.toUpperCase(), UnionSelect.EntityTypeColumnName);
+			_columnNames = names;
+		}
+		String name = names.get(columnName.toUpperCase());
+		return name != null ? name : columnName;
+	}
+
+	@Override
+	public boolean supportsSequence() {
+		return true;
+	}
+
+	@Override
+	public String sqlForNextSequenceValues(String sequenceName, int count) {
+		return "SELECT NEXT VALUE FOR " + sequenceName + " FROM SYSTEM_RANGE(1, " + count + ")";
+	}
+
+	@Override
+	public String lockClause(DbQuerySpecification.LockMode mode) {
+		return forUpdateClause(mode);
+	}
+
+	@Override
+	protected String explainStatement(String sqlCommand) {
+		return "EXPLAIN " + sqlCommand;
+	}
+
+	@Override
+	protected int defaultIsolationLevel() {
+		return Connection.TRANSACTION_READ_COMMITTED;
+	}
+
+}
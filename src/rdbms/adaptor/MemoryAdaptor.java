@@ -0,0 +1,251 @@
+package rdbms.adaptor;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import rdbms.DbAdaptor;
+import rdbms.DbEntity;
+import rdbms.DbModel;
+import rdbms.DbQuerySpecification;
+import rdbms.util.DbLogger;
+import rdbms.util.DbSQLTemplate;
+import core.util.ListUtils;
+import core.util.MapUtils;
+
+public class MemoryAdaptor extends DbAdaptor {
+
+	private static final Map<String, ResultStore> _stores = MapUtils.map();
+
+	private final ResultStore _store;
+	private boolean _connected = false;
+
+	public MemoryAdaptor(DbModel model) {
+		super(model);
+		_store = resultStore(model);
+	}
+
+	public static ResultStore resultStore(DbModel model) {
+		String name = model.name() != null ? model.name() : "";
+		synchronized(_stores) {
+			ResultStore store = _stores.get(name);
+			if(store == null) {
+				store = new ResultStore();
+				_stores.put(name, store);
+			}
+			return store;
+		}
+	}
+
+	public ResultStore resultStore() {
+		return _store;
+	}
+
+	@Override
+	public boolean supportsSequence() {
+		return false;
+	}
+
+	@Override
+	public String lockClause(DbQuerySpecification.LockMode mode) {
+		return forUpdateClause(mode);
+	}
+
+	@Override
+	public boolean isConnected() {
+		return _connected;
+	}
+
+	@Override
+	public boolean connect() {
+		_connected = true;
+		return true;
+	}
+
+	@Override
+	public void disconnect() {
+		_connected = false;
+	}
+
+	@Override
+	public int executeUpdate(String sqlCommand) throws SQLException {
+		_store.record(sqlCommand);
+		return _store.updateCount(sqlCommand);
+	}
+
+	@Override
+	public int[] executeBatch(List<String> sqlCommands) throws SQLException {
+		int counts[] = new int[sqlCommands.size()];
+		for(int i = 0; i < counts.length; i++) {
+			counts[i] = executeUpdate(sqlCommands.get(i));
+		}
+		return counts;
+	}
+
+	@Override
+	public List<Object> executeInsert(String sqlCommand, String[] keyColumnNames) throws SQLException {
+		_store.record(sqlCommand);
+		int count = insertedRowCount(sqlCommand);
+		List<Object> keys = ListUtils.list(count);
+		for(int i = 0; i < count; i++) {
+			keys.add(Long.valueOf(_store._nextKey.incrementAndGet()));
+		}
+		return keys;
+	}
+
+	@Override
+	public List<Object> executeInsertBatch(String sqlCommand, List<Object[]> parameterRows, String[] keyColumnNames) throws SQLException {
+		_store.record(sqlCommand);
+		List<Object> keys = ListUtils.list(parameterRows.size());
+		for(int i = 0, size = parameterRows.size(); i < size; i++) {
+			keys.add(Long.valueOf(_store._nextKey.incrementAndGet()));
+		}
+		return keys;
+	}
+
+	@Override
+	public List<Map<String, Object>> executeQuery(String sqlCommand) throws SQLException {
+		_store.record(sqlCommand);
+		List<Map<String, Object>> result = _store.rows(sqlCommand);
+		List<Map<String, Object>> rows = ListUtils.list(result.size());
+		for(Map<String, Object> row : result) {
+			Map<String, Object> copy = MapUtils.map();
+			copy.putAll(row);
+			rows.add(copy);
+		}
+		return rows;
+	}
+
+	static int insertedRowCount(String sqlCommand) {
+		int index = sqlCommand.toUpperCase().indexOf(" VALUES ");
+		if(index < 0)
+			return 1;
+		int count = 0;
+		int depth = 0;
+		boolean quoted = false;
+		for(int i = index, length = sqlCommand.length(); i < length; i++) {
+			char ch = sqlCommand.charAt(i);
+			if(ch == '\'')
+				quoted = !quoted;
+			else if(quoted)
+				continue;
+			else if(ch == '(' && depth++ == 0)
+				count++;
+			else if(ch == ')')
+				depth--;
+		}
+		return count > 0 ? count : 1;
+	}
+
+	@Override
+	public void beginTransaction() throws Exception {
+	}
+
+	@Override
+	public void commitTransaction() throws Exception {
+	}
+
+	@Override
+	public void rollbackTransaction() {
+	}
+
+	@Override
+	protected boolean supportsIsolationLevel(int level) {
+		return true;
+	}
+
+	@Override
+	protected int isolationLevel() {
+		return defaultIsolationLevel();
+	}
+
+	@Override
+	protected void setIsolationLevel(int level) {
+	}
+
+	@Override
+	protected int defaultIsolationLevel() {
+		return Connection.TRANSACTION_READ_COMMITTED;
+	}
+
+	@Override
+	public void lockRecord(DbEntity entity, Object primaryKey) throws SQLException {
+	}
+
+	@Override
+	public void lockTable(DbEntity entity) throws SQLException {
+	}
+
+	@Override
+	public void unlockTable(DbEntity entity) {
+	}
+
+	public static class ResultStore {
+		private final Map<String, List<Map<String, Object>>> _rows = new ConcurrentHashMap<String, List<Map<String, Object>>>();
+		private final Map<String, Integer> _updateCounts = new ConcurrentHashMap<String, Integer>();
+		private final Queue<String> _statements = new ConcurrentLinkedQueue<String>();
+		private final AtomicLong _nextKey = new AtomicLong();
+		private volatile boolean _recordsStatements = false;
+		private volatile int _defaultUpdateCount = 1;
+
+		public void addRows(String sqlOrTemplate, List<Map<String, Object>> rows) {
+			_rows.put(sqlOrTemplate, rows);
+		}
+
+		public void setUpdateCount(String sqlOrTemplate, int count) {
+			_updateCounts.put(sqlOrTemplate, Integer.valueOf(count));
+		}
+
+		public void setDefaultUpdateCount(int count) {
+			_defaultUpdateCount = count;
+		}
+
+		public void setNextKey(long key) {
+			_nextKey.set(key - 1);
+		}
+
+		public void setRecordsStatements(boolean flag) {
+			_recordsStatements = flag;
+		}
+
+		public List<String> recordedStatements() {
+			return new ArrayList<String>(_statements);
+		}
+
+		public void clear() {
+			_rows.clear();
+			_updateCounts.clear();
+			_statements.clear();
+			_nextKey.set(0L);
+		}
+
+		void record(String sql) {
+			if(_recordsStatements)
+				_statements.add(sql);
+		}
+
+		List<Map<String, Object>> rows(String sql) {
+			List<Map<String, Object>> rows = _rows.get(sql);
+			if(rows == null && !_rows.isEmpty())
+				rows = _rows.get(DbSQLTemplate.normalize(sql));
+			if(rows == null) {
+				DbLogger.rdbms_adaptor.debug("MemoryAdaptor: no rows stored for " + sql);
+				return ListUtils.EmptyList;
+			}
+			return rows;
+		}
+
+		int updateCount(String sql) {
+			Integer count = _updateCounts.get(sql);
+			if(count == null && !_updateCounts.isEmpty())
+				count = _updateCounts.get(DbSQLTemplate.normalize(sql));
+			return count != null ? count.intValue() : _defaultUpdateCount;
+		}
+	}
+}
@@ -4,6 +4,7 @@ import java.sql.Connection;
 
 import rdbms.DbAdaptor;
 import rdbms.DbModel;
+import rdbms.DbQuerySpecification;
 
 public class MySQLAdaptor extends DbAdaptor {
 
@@ -16,6 +17,16 @@ public class MySQLAdaptor extends DbAdaptor {
 		return false;
 	}
 
+	@Override
+	public String lockClause(DbQuerySpecification.LockMode mode) {
+		return forUpdateClause(mode);
+	}
+
+	@Override
+	protected String explainStatement(String sqlCommand) {
+		return "EXPLAIN " + sqlCommand;
+	}
+
 	@Override
 	protected int defaultIsolationLevel() {
 		return Connection.TRANSACTION_REPEATABLE_READ;
@@ -1,9 +1,19 @@
 package rdbms.adaptor;
 
 import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.List;
 
 import rdbms.DbAdaptor;
+import rdbms.DbEntity;
+import rdbms.DbField;
 import rdbms.DbModel;
+import rdbms.DbQuerySpecification;
+import core.util.ListUtils;
 
 public class PGSQLAdaptor extends DbAdaptor {
 
@@ -16,6 +26,84 @@ public class PGSQLAdaptor extends DbAdaptor {
 		return true;
 	}
 
+	@Override
+	public List<Object> executeInsert(String sqlCommand, String[] keyColumnNames) throws SQLException {
+		List<Object> keys = ListUtils.list();
+		Statement stmt = _connection.createStatement();
+		ResultSet rs = null;
+		try {
+			rs = stmt.executeQuery(sqlCommand + " RETURNING " + ListUtils.listToString(Arrays.asList(keyColumnNames), ", "));
+			while(rs.next()) {
+				keys.add(rs.getObject(1));
+			}
+		} finally {
+			if(rs != null)		rs.close();
+			if(stmt != null)	stmt.close();
+		}
+		return keys;
+	}
+
+	@Override
+	protected PreparedStatement prepareInsertStatement(String sqlCommand, String[] keyColumnNames) throws SQLException {
+		// the driver quotes the names it appends as RETURNING; unquoted DDL names are folded to lower case
+		String names[] = new String[keyColumnNames.length];
+		for(int i = 0; i < names.length; i++) {
+			names[i] = keyColumnNames[i].toLowerCase();
+		}
+		return _connection.jdbcConnection().prepareStatement(sqlCommand, names);
+	}
+
+	@Override
+	public String sqlForNextSequenceValues(String sequenceName, int count) {
+		return "SELECT nextval('" + sequenceName + "') FROM generate_series(1, " + count + ")";
+	}
+
+	@Override
+	public String lockClause(DbQuerySpecification.LockMode mode) {
+		return forUpdateClause(mode);
+	}
+
+	@Override
+	public String nullValueForField(DbField field) {
+		Class<?> valueClass = field.valueClass();
+		String type;
+		if(field.isBlob())
+			type = "BYTEA";
+		else if(field.isDate())
+			type = "TIMESTAMP";
+		else if(valueClass == Integer.class)
+			type = "INTEGER";
+		else if(valueClass == Long.class)
+			type = "BIGINT";
+		else if(valueClass == Short.class)
+			type = "SMALLINT";
+		else if(valueClass == Float.class)
+			type = "REAL";
+		else if(valueClass == Double.class)
+			type = "DOUBLE PRECISION";
+		else if(valueClass == Boolean.class)
+			type = "BOOLEAN";
+		else if(field.isNumber())
+			type = "NUMERIC";
+		else
+			type = "VARCHAR";
+		return "CAST(NULL AS " + type + ")";
+	}
+
+	@Override
+	protected String explainStatement(String sqlCommand) {
+		return "EXPLAIN " + sqlCommand;
+	}
+
+	@Override
+	public void lockTable(DbEntity entity) throws SQLException {
+		executeUpdate("LOCK TABLE " + entity.tableName() + " IN EXCLUSIVE MODE");
+	}
+	
+	@Override
+	public void unlockTable(DbEntity entity) {
+	}
+
 	@Override
 	protected int defaultIsolationLevel() {
 		return Connection.TRANSACTION_READ_COMMITTED;
@@ -1,5 +1,6 @@
 package rdbms.command;
 
+import rdbms.DbAdaptor;
 import rdbms.DbQuerySpecification;
 
 public abstract class DbCommand {
@@ -15,4 +16,14 @@ public abstract class DbCommand {
 	public SQLGenerationContext generationContext() {
 		return _ctx;
 	}
+	protected String limitClause() {
+		int limitSize = _spec.fetchLimitSize();
+		int limitStart = _spec.fetchLimitStart();
+		if(limitSize < 0 && limitStart <= 0)
+			return "";
+		DbAdaptor adaptor = _ctx.adaptor();
+		if(adaptor == null)
+			throw new IllegalStateException("Fetch limit requires an adaptor in the generation context");
+		return adaptor.limitClause(limitSize, limitStart);
+	}
 }
@@ -3,6 +3,7 @@ package rdbms.command;
 import java.util.List;
 import java.util.Map;
 
+import rdbms.DbAdaptor;
 import rdbms.DbEntity;
 import rdbms.DbField;
 import core.util.ListUtils;
@@ -11,6 +12,14 @@ import core.util.MapUtils;
 public class SQLGenerationContext {
 
 	Map<DbEntity, String> _aliases = MapUtils.map();
+	DbAdaptor _adaptor;
+	
+	public DbAdaptor adaptor() {
+		return _adaptor;
+	}
+	public void setAdaptor(DbAdaptor adaptor) {
+		_adaptor = adaptor;
+	}
 	
 	public String aliasForEntity(DbEntity entity) {
 		if(_aliases.containsKey(entity)) {
@@ -3,6 +3,7 @@ package rdbms.command;
 import java.util.List;
 
 import core.util.ListUtils;
+import rdbms.DbAdaptor;
 import rdbms.DbEntity;
 import rdbms.DbQuerySpecification;
 import rdbms.DbSQLCommand;
@@ -33,6 +34,11 @@ public class Select extends DbCommand {
 			}
 			sql.append(ListUtils.listToString(soStrings, ", "));
 		}
+		sql.append(limitClause());
+		if(querySpecification().isLocking()) {
+			DbAdaptor adaptor = generationContext().adaptor();
+			sql.append(adaptor != null ? adaptor.lockClause(querySpecification().lockMode()) : " FOR UPDATE");
+		}
 		DbSQLCommand command = new DbSQLCommand(entity, sql.toString());
 		return command;
 	}
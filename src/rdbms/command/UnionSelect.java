@@ -0,0 +1,94 @@
+package rdbms.command;
+
+import java.util.List;
+
+import core.util.ListUtils;
+import rdbms.DbAdaptor;
+import rdbms.DbEntity;
+import rdbms.DbField;
+import rdbms.DbQuerySpecification;
+import rdbms.DbSQLCommand;
+import rdbms.DbSortOrdering;
+
+public class UnionSelect extends DbCommand {
+	
+	public static final String EntityTypeColumnName = "_entity_type";
+	
+	List<DbEntity> _entities;
+
+	public UnionSelect(DbQuerySpecification spec, List<DbEntity> entities) {
+		super(spec);
+		_entities = entities;
+	}
+	
+	public List<DbEntity> entities() {
+		return _entities;
+	}
+	
+	public List<String> unionColumnNames() {
+		List<String> columnNames = ListUtils.list();
+		for(DbEntity entity : _entities) {
+			for(DbField field : entity.fields()) {
+				if(!columnNames.contains(field.columnName()))
+					columnNames.add(field.columnName());
+			}
+		}
+		return columnNames;
+	}
+
+	public DbSQLCommand sqlCommand() throws Exception {
+		DbEntity rootEntity = querySpecification().entity();
+		List<String> columnNames = unionColumnNames();
+		StringBuffer sql = new StringBuffer();
+		boolean start = true;
+		for(DbEntity entity : _entities) {
+			if(start)	start = false;
+			else		sql.append(" UNION ALL ");
+			sql.append(selectStringForEntity(entity, columnNames));
+		}
+		if(!ListUtils.nullOrEmpty(querySpecification().sortOrderings())) {
+			sql.append(" ORDER BY ");
+			List<String> soStrings = ListUtils.list();
+			for(DbSortOrdering so : querySpecification().sortOrderings()) {
+				soStrings.add(so.generateString(rootEntity));
+			}
+			sql.append(ListUtils.listToString(soStrings, ", "));
+		}
+		sql.append(limitClause());
+		DbSQLCommand command = new DbSQLCommand(rootEntity, sql.toString());
+		return command;
+	}
+
+	private String nullValueForColumn(String columnName) {
+		DbAdaptor adaptor = generationContext().adaptor();
+		if(adaptor == null)
+			return "NULL";
+		for(DbEntity entity : _entities) {
+			DbField field = entity.fieldWithColumnName(columnName);
+			if(field != null)
+				return adaptor.nullValueForField(field);
+		}
+		return "NULL";
+	}
+
+	private String selectStringForEntity(DbEntity entity, List<String> columnNames) {
+		String alias = generationContext().aliasForEntity(entity);
+		List<String> columns = ListUtils.list();
+		columns.add("'" + entity.entityName() + "' AS " + EntityTypeColumnName);
+		for(String columnName : columnNames) {
+			DbField field = entity.fieldWithColumnName(columnName);
+			if(field != null)
+				columns.add(generationContext().columnNameForField(field, entity) + " AS " + columnName);
+			else
+				columns.add(nullValueForColumn(columnName) + " AS " + columnName);
+		}
+		StringBuffer sql = new StringBuffer();
+		sql.append("SELECT " + ListUtils.listToString(columns, ", ") + " FROM " + entity.tableName() + " " + alias);
+		if(querySpecification().predicate() != null) {
+			sql.append(" WHERE ");
+			sql.append(querySpecification().predicate().generateStringInContext(entity, generationContext()));
+		}
+		return sql.toString();
+	}
+
+}
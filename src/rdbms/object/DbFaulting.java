@@ -10,9 +10,13 @@ public interface DbFaulting {
 	public static class DefaultImplementation {
 		
 		public Object getStoredValueForRelationshipWithKey(Object object, String key) {
+			return getStoredValueForRelationshipWithKey(object, key, DbContext.get());
+		}
+		
+		public Object getStoredValueForRelationshipWithKey(Object object, String key, DbContext context) {
 			Object value = FieldAccess.DefaultImplementation.getValueForKey(object, key);
 			if(value == null) {
-				value = DbContext.get().storedValueForToOneRelationship(object, key);
+				value = context.storedValueForToOneRelationship(object, key);
 				FieldAccess.DefaultImplementation.setValueForKey(object, value, key);
 			}
 			return value;
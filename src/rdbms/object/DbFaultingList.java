@@ -7,6 +7,7 @@ import java.util.List;
 import java.util.ListIterator;
 
 import rdbms.DbContext;
+import rdbms.DbEvents;
 import rdbms.DbQuery;
 import rdbms.DbRelationship;
 
@@ -15,6 +16,7 @@ public class DbFaultingList<E> extends ArrayList<E> {
 	private boolean _isFault = false;
 	private Object _owner;
 	private DbRelationship _relationship;
+	private transient DbContext _context;
 	
 	public boolean isFault() {
 		return _isFault;
@@ -24,21 +26,35 @@ public class DbFaultingList<E> extends ArrayList<E> {
 	}
 
 	private void loadStoredValues() {
-		DbContext ctx = DbContext.get();
+		long start = DbEvents.start();
+		DbContext ctx = _context != null ? _context : DbContext.get();
 		DbQuery processor = ctx.queryProcessorForEntity(_relationship.entity());
 		List objects;
-		objects = processor.loadObjectsInRelationship(_owner, _relationship);
+		objects = processor.loadObjectsInRelationship(_owner, _relationship, ctx);
 		super.clear();
 		super.addAll(objects);
 		_isFault = false;
+		DbEvents.faultLoaded(_relationship, objects.size(), start);
 	}
 	
 	public DbFaultingList(Object owner, DbRelationship relationship) {
+		this(owner, relationship, DbContext.peek());
+	}
+	
+	public DbFaultingList(Object owner, DbRelationship relationship, DbContext context) {
 		super();
 		this._owner = owner;
 		this._relationship = relationship;
+		this._context = context;
 		this._isFault = true;
 	}
+	
+	public DbContext context() {
+		return _context;
+	}
+	public void setContext(DbContext context) {
+		this._context = context;
+	}
 
 	public Object owner() {
 		return _owner;
@@ -0,0 +1,120 @@
+package rdbms.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/*
+ * Log-linear histogram. Every power of two is split into 2^subBucketBits linear sub-buckets,
+ * so a percentile is off by at most 1/2^subBucketBits of the value.
+ */
+public class DbHistogram {
+
+	public static final int DefaultSubBucketBits = 4;
+	
+	private final int _subBucketBits;
+	private final int _subBucketCount;
+	private final int _numBuckets;
+	private final AtomicLongArray _buckets;
+	private final AtomicLong _count = new AtomicLong();
+	private final AtomicLong _sum = new AtomicLong();
+	private final AtomicLong _max = new AtomicLong();
+	
+	public DbHistogram() {
+		this(DefaultSubBucketBits);
+	}
+	
+	public DbHistogram(int subBucketBits) {
+		if(subBucketBits < 1 || subBucketBits > 16)
+			throw new IllegalStateException("subBucketBits must be between 1 and 16: " + subBucketBits);
+		_subBucketBits = subBucketBits;
+		_subBucketCount = 1 << subBucketBits;
+		_numBuckets = (64 - subBucketBits) * _subBucketCount;
+		_buckets = new AtomicLongArray(_numBuckets);
+	}
+	
+	public void record(long value) {
+		if(value < 0)
+			value = 0;
+		_buckets.incrementAndGet(bucketIndex(value));
+		_count.incrementAndGet();
+		_sum.addAndGet(value);
+		long max = _max.get();
+		while(value > max && !_max.compareAndSet(max, value)) {
+			max = _max.get();
+		}
+	}
+	
+	int bucketIndex(long value) {
+		if(value < _subBucketCount)
+			return (int) value;
+		int shift = 63 - Long.numberOfLeadingZeros(value) - _subBucketBits;
+		return _subBucketCount + shift * _subBucketCount + (int) ((value >>> shift) - _subBucketCount);
+	}
+	
+	long bucketUpperBound(int index) {
+		if(index < _subBucketCount)
+			return index;
+		int shift = (index - _subBucketCount) / _subBucketCount;
+		long low = (long) (_subBucketCount + (index - _subBucketCount) % _subBucketCount) << shift;
+		return low + (1L << shift) - 1;
+	}
+	
+	public long count() {
+		return _count.get();
+	}
+	
+	public long sum() {
+		return _sum.get();
+	}
+	
+	public long max() {
+		return _max.get();
+	}
+	
+	public double mean() {
+		long count = _count.get();
+		return count > 0 ? (double) _sum.get() / count : 0.0;
+	}
+	
+	public long percentile(double fraction) {
+		long counts[] = new long[_numBuckets];
+		long total = 0;
+		for(int i = 0; i < _numBuckets; i++) {
+			counts[i] = _buckets.get(i);
+			total += counts[i];
+		}
+		if(total == 0)
+			return 0L;
+		long rank = (long) Math.ceil(total * fraction);
+		if(rank < 1)
+			rank = 1;
+		long seen = 0;
+		for(int i = 0; i < _numBuckets; i++) {
+			seen += counts[i];
+			if(seen >= rank)
+				return Math.min(bucketUpperBound(i), _max.get());
+		}
+		return _max.get();
+	}
+	
+	public void reset() {
+		for(int i = 0; i < _numBuckets; i++) {
+			_buckets.set(i, 0L);
+		}
+		_count.set(0L);
+		_sum.set(0L);
+		_max.set(0L);
+	}
+	
+	public String summary(long divisor, String unit) {
+		return "count=" + count() + "; mean=" + (long) (mean() / divisor) + unit 
+				+ "; p50=" + percentile(0.5) / divisor + unit 
+				+ "; p99=" + percentile(0.99) / divisor + unit 
+				+ "; max=" + max() / divisor + unit;
+	}
+	
+	@Override
+	public String toString() {
+		return "{" + summary(1L, "") + "}";
+	}
+}
@@ -0,0 +1,283 @@
+package rdbms.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import rdbms.DbContext;
+import rdbms.DbEntity;
+import rdbms.DbField;
+import rdbms.DbModelGroup;
+import rdbms.DbQuerySpecification;
+import rdbms.DbRelationship;
+import rdbms.DbSession;
+
+public class DbLoadHarness {
+
+	public enum Operation {
+		Find, List, Traverse, Insert, Update
+	}
+
+	public interface ObjectFactory {
+		public Object newObject(DbContext context, long sequence);
+		public void modifyObject(Object object, long sequence);
+	}
+
+	private static final int LatencySubBucketBits = 7;
+	
+	private final DbEntity _entity;
+	private final int _weights[] = new int[Operation.values().length];
+	private final DbHistogram _latency[] = new DbHistogram[Operation.values().length];
+	private final AtomicLong _statements[] = new AtomicLong[Operation.values().length];
+	private final AtomicLong _errors = new AtomicLong();
+	private final AtomicLong _sequence = new AtomicLong();
+	private ObjectFactory _factory;
+	private int _threads = 4;
+	private long _durationMillis = 10000L;
+	private int _listSize = 50;
+	private List<Object> _primaryKeys = Collections.emptyList();
+	private long _elapsedNanos;
+
+	public DbLoadHarness(DbEntity entity) {
+		_entity = entity;
+		for(int i = 0; i < _latency.length; i++) {
+			_latency[i] = new DbHistogram(LatencySubBucketBits);
+			_statements[i] = new AtomicLong();
+		}
+		setWeight(Operation.Find, 60);
+		setWeight(Operation.List, 20);
+		setWeight(Operation.Traverse, 20);
+	}
+
+	public void setWeight(Operation operation, int weight) {
+		_weights[operation.ordinal()] = weight;
+	}
+
+	public void setMix(String mix) {
+		for(int i = 0; i < _weights.length; i++) {
+			_weights[i] = 0;
+		}
+		for(String item : mix.split(",")) {
+			String pair[] = item.split("=");
+			if(pair.length != 2)
+				throw new IllegalStateException("Illegal mix item '" + item + "'. Expected <operation>=<weight>");
+			setWeight(operationNamed(pair[0].trim()), Integer.parseInt(pair[1].trim()));
+		}
+	}
+
+	private static Operation operationNamed(String name) {
+		for(Operation operation : Operation.values()) {
+			if(operation.name().equalsIgnoreCase(name))
+				return operation;
+		}
+		throw new IllegalStateException("Unknown operation '" + name + "'");
+	}
+
+	public void setObjectFactory(ObjectFactory factory) {
+		_factory = factory;
+	}
+
+	public void setThreads(int threads) {
+		_threads = threads;
+	}
+
+	public void setDurationMillis(long millis) {
+		_durationMillis = millis;
+	}
+
+	public void setListSize(int size) {
+		_listSize = size;
+	}
+
+	public DbHistogram latency(Operation operation) {
+		return _latency[operation.ordinal()];
+	}
+
+	public void run() throws Exception {
+		if(_factory == null && (_weights[Operation.Insert.ordinal()] > 0 || _weights[Operation.Update.ordinal()] > 0)) {
+			DbLogger.rdbms_perf.warn("DbLoadHarness: no object factory. Insert and update are removed from the mix");
+			_weights[Operation.Insert.ordinal()] = 0;
+			_weights[Operation.Update.ordinal()] = 0;
+		}
+		loadPrimaryKeys();
+		final long deadline = System.currentTimeMillis() + _durationMillis;
+		final CountDownLatch done = new CountDownLatch(_threads);
+		long start = System.nanoTime();
+		for(int i = 0; i < _threads; i++) {
+			final long seed = i;
+			Thread thread = new Thread("DbLoadHarness-" + i) {
+				@Override
+				public void run() {
+					try {
+						runWorker(new Random(seed), deadline);
+					} finally {
+						done.countDown();
+					}
+				}
+			};
+			thread.setDaemon(true);
+			thread.start();
+		}
+		done.await();
+		_elapsedNanos = System.nanoTime() - start;
+	}
+
+	private void loadPrimaryKeys() {
+		DbField pkField = _entity.primaryKeyField();
+		if(pkField == null)
+			throw new IllegalStateException("Entity '" + _entity.entityName() + "' has no single primary key field");
+		DbContext context = DbContext.createContext();
+		List<Object> keys;
+		try {
+			List<?> objects = context.executeQuery(new DbQuerySpecification(_entity, null));
+			keys = new ArrayList<Object>(objects.size());
+			for(Object object : objects) {
+				keys.add(pkField.accessor().getValue(object));
+			}
+		} finally {
+			context.close();
+		}
+		_primaryKeys = keys;
+		if(keys.isEmpty() && (_weights[Operation.Find.ordinal()] > 0 || _weights[Operation.Traverse.ordinal()] > 0 || _weights[Operation.Update.ordinal()] > 0))
+			DbLogger.rdbms_perf.warn("DbLoadHarness: table of entity '" + _entity.entityName() + "' is empty");
+	}
+
+	private void runWorker(Random random, long deadline) {
+		int totalWeight = 0;
+		for(int weight : _weights) {
+			totalWeight += weight;
+		}
+		if(totalWeight == 0)
+			return;
+		while(System.currentTimeMillis() < deadline) {
+			DbContext context = DbContext.createContext();
+			DbContext.bind(context);
+			try {
+				Operation operation = chooseOperation(random, totalWeight);
+				DbSession session = context.sessionForEntity(_entity);
+				long statements = session.statementCount();
+				long start = System.nanoTime();
+				try {
+					execute(operation, context, random);
+				} catch (Exception e) {
+					_errors.incrementAndGet();
+					DbLogger.rdbms_perf.debug("DbLoadHarness: " + operation + " failed", e);
+					continue;
+				}
+				_latency[operation.ordinal()].record(System.nanoTime() - start);
+				_statements[operation.ordinal()].addAndGet(session.statementCount() - statements);
+			} finally {
+				DbContext.unbind();
+				context.close();
+			}
+		}
+	}
+
+	private Operation chooseOperation(Random random, int totalWeight) {
+		int n = random.nextInt(totalWeight);
+		for(Operation operation : Operation.values()) {
+			n -= _weights[operation.ordinal()];
+			if(n < 0)
+				return operation;
+		}
+		return Operation.Find;
+	}
+
+	private Object randomObject(DbContext context, Random random) {
+		if(_primaryKeys.isEmpty())
+			return null;
+		Object primaryKey = _primaryKeys.get(random.nextInt(_primaryKeys.size()));
+		return context.find(_entity.entityClass(), primaryKey);
+	}
+
+	private void execute(Operation operation, DbContext context, Random random) throws Exception {
+		switch(operation) {
+		case Find:
+			randomObject(context, random);
+			break;
+		case List:
+			DbQuerySpecification spec = new DbQuerySpecification(_entity, null);
+			Map<String, Integer> hint = new HashMap<String, Integer>();
+			hint.put(DbQuerySpecification.FetchLimitSize, Integer.valueOf(_listSize));
+			spec.setFetchHint(hint);
+			context.executeQuery(spec);
+			break;
+		case Traverse:
+			Object owner = randomObject(context, random);
+			if(owner != null && _entity.relationships() != null) {
+				for(DbRelationship relationship : _entity.relationships()) {
+					if(relationship.isToMany()) {
+						Object value = _entity.valueForKey(owner, relationship.key());
+						if(value instanceof List)
+							((List<?>) value).size();
+					} else {
+						context.storedValueForToOneRelationship(owner, relationship.key());
+					}
+				}
+			}
+			break;
+		case Insert:
+			Object object = _factory.newObject(context, _sequence.incrementAndGet());
+			context.recordForInsert(object);
+			context.saveChanges();
+			break;
+		case Update:
+			Object target = randomObject(context, random);
+			if(target != null) {
+				_factory.modifyObject(target, _sequence.incrementAndGet());
+				context.updateObject(target);
+				context.saveChanges();
+			}
+			break;
+		}
+	}
+
+	public List<String> report() {
+		List<String> lines = new ArrayList<String>();
+		double seconds = _elapsedNanos / 1000000000.0;
+		long total = 0;
+		for(DbHistogram histogram : _latency) {
+			total += histogram.count();
+		}
+		lines.add("entity=" + _entity.entityName() + "; threads=" + _threads + "; seconds=" + seconds + "; operations=" + total
+				+ "; throughput=" + (seconds > 0 ? (long) (total / seconds) : 0) + "/s; errors=" + _errors.get());
+		for(Operation operation : Operation.values()) {
+			DbHistogram histogram = _latency[operation.ordinal()];
+			long count = histogram.count();
+			if(count == 0)
+				continue;
+			lines.add(operation + " {count=" + count + "; p50=" + histogram.percentile(0.5) / 1000L + "us; p90=" + histogram.percentile(0.9) / 1000L
+					+ "us; p99=" + histogram.percentile(0.99) / 1000L + "us; max=" + histogram.max() / 1000L
+					+ "us; statementsPerOperation=" + (double) _statements[operation.ordinal()].get() / count + "}");
+		}
+		return lines;
+	}
+
+	public static void main(String[] args) throws Exception {
+		if(args.length < 1) {
+			System.err.println("usage: DbLoadHarness <entity name> [threads] [seconds] [mix, e.g. find=60,list=20,traverse=20]");
+			System.exit(1);
+		}
+		DbEntity entity = DbModelGroup.defaultGroup().entityNamed(args[0]);
+		if(entity == null) {
+			System.err.println("No entity named '" + args[0] + "' in DbModel.xml");
+			System.exit(1);
+		}
+		DbLoadHarness harness = new DbLoadHarness(entity);
+		if(args.length > 1)
+			harness.setThreads(Integer.parseInt(args[1]));
+		if(args.length > 2)
+			harness.setDurationMillis(Long.parseLong(args[2]) * 1000L);
+		if(args.length > 3)
+			harness.setMix(args[3]);
+		harness.run();
+		for(String line : harness.report()) {
+			System.out.println(line);
+		}
+	}
+}
@@ -12,5 +12,6 @@ public class DbLogger {
     public static final Logger rdbms_cache = (Logger)Logger.getLogger("rdbms.cache");
     public static final Logger rdbms_perf = (Logger)Logger.getLogger("rdbms.perf");
     public static final Logger rdbms_adaptor = (Logger)Logger.getLogger("rdbms.adaptor");
+    public static final Logger rdbms_slow = (Logger)Logger.getLogger("rdbms.slow");
 
 }
@@ -0,0 +1,157 @@
+package rdbms.util;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+
+import rdbms.DbEntity;
+import rdbms.DbField;
+import rdbms.DbModel;
+import rdbms.DbModelGroup;
+import rdbms.DbPropertyAccessor;
+
+public class DbMapperGenerator {
+
+	public static final String MapperClassSuffix = "_DbMapper";
+
+	public static String mapperClassName(DbEntity entity) {
+		Class<?> entityClass = entity.entityClass();
+		String packageName = entityClass.getPackage() != null ? entityClass.getPackage().getName() : "";
+		return (packageName.length() > 0 ? packageName + "." : "") + entityClass.getSimpleName() + MapperClassSuffix;
+	}
+
+	public String generateSource(DbEntity entity) {
+		Class<?> entityClass = entity.entityClass();
+		String entityType = entityClass.getName().replace('$', '.');
+		String packageName = entityClass.getPackage() != null ? entityClass.getPackage().getName() : null;
+		String className = entityClass.getSimpleName() + MapperClassSuffix;
+		DbField[] fields = entity.fields();
+		DbPropertyAccessor[] accessors = entity.accessors();
+
+		StringBuffer src = new StringBuffer();
+		if(packageName != null && packageName.length() > 0)
+			src.append("package " + packageName + ";\n\n");
+		src.append("import java.util.Map;\n\n");
+		src.append("import rdbms.DbEntity;\n");
+		src.append("import rdbms.DbEntityMapper;\n");
+		src.append("import rdbms.DbField;\n");
+		src.append("import rdbms.DbPropertyAccessor;\n\n");
+		src.append("public class " + className + " implements DbEntityMapper {\n\n");
+		src.append("\tprivate static final String[] ColumnNames = {");
+		for(int i = 0; i < fields.length; i++) {
+			if(i > 0)	src.append(", ");
+			src.append(stringLiteral(fields[i].columnName()));
+		}
+		src.append("};\n");
+		src.append("\tprivate final DbEntity _entity;\n");
+		src.append("\tprivate final DbField[] _fields;\n");
+		src.append("\tprivate final DbPropertyAccessor[] _accessors;\n\n");
+
+		src.append("\tpublic " + className + "(DbEntity entity) {\n");
+		src.append("\t\t_entity = entity;\n");
+		src.append("\t\t_fields = entity.fields();\n");
+		src.append("\t\t_accessors = entity.accessors();\n");
+		src.append("\t\tif(_fields.length != ColumnNames.length)\n");
+		src.append("\t\t\tthrow new IllegalStateException(\"Mapper of entity '\" + entity.entityName() + \"' is out of date\");\n");
+		src.append("\t\tfor(int i = 0; i < ColumnNames.length; i++) {\n");
+		src.append("\t\t\tif(!ColumnNames[i].equals(_fields[i].columnName()))\n");
+		src.append("\t\t\t\tthrow new IllegalStateException(\"Mapper of entity '\" + entity.entityName() + \"' is out of date\");\n");
+		src.append("\t\t}\n");
+		src.append("\t}\n\n");
+
+		src.append("\tpublic Object newInstance() throws Exception {\n");
+		if(hasPublicConstructor(entityClass))
+			src.append("\t\treturn new " + entityType + "();\n");
+		else
+			src.append("\t\treturn _entity.entityClass().newInstance();\n");
+		src.append("\t}\n\n");
+
+		src.append("\tpublic void initObject(Object object, Map<String, Object> row) throws Exception {\n");
+		src.append("\t\t" + entityType + " o = (" + entityType + ") object;\n");
+		src.append("\t\tObject v;\n");
+		for(int i = 0; i < fields.length; i++) {
+			DbPropertyAccessor accessor = accessors[i];
+			if(!accessor.isSettable())
+				continue;
+			src.append("\t\tv = _fields[" + i + "].coerceValue(row.get(" + stringLiteral(fields[i].columnName()) + "));\n");
+			Method setter = accessor.setterMethod();
+			if(setter == null || !Modifier.isPublic(setter.getDeclaringClass().getModifiers())) {
+				src.append("\t\t_accessors[" + i + "].setValue(o, v);\n");
+				continue;
+			}
+			Class<?> type = setter.getParameterTypes()[0];
+			String call = "o." + setter.getName();
+			if(type.isPrimitive()) {
+				String wrapper = primitiveSourceType(type);
+				src.append("\t\tif(v instanceof " + wrapper + ")\n");
+				src.append("\t\t\t" + call + "(((" + wrapper + ") v)." + type.getName() + "Value());\n");
+				src.append("\t\telse if(v != null)\n");
+				src.append("\t\t\t_accessors[" + i + "].setValue(o, v);\n");
+			} else {
+				String typeName = type.getCanonicalName();
+				src.append("\t\tif(v == null || v instanceof " + typeName + ")\n");
+				src.append("\t\t\t" + call + "((" + typeName + ") v);\n");
+				src.append("\t\telse\n");
+				src.append("\t\t\t_accessors[" + i + "].setValue(o, v);\n");
+			}
+		}
+		src.append("\t}\n\n");
+		src.append("}\n");
+		return src.toString();
+	}
+
+	public File writeSource(DbEntity entity, File sourceDirectory) throws Exception {
+		String path = mapperClassName(entity).replace('.', File.separatorChar) + ".java";
+		File file = new File(sourceDirectory, path);
+		file.getParentFile().mkdirs();
+		Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+		try {
+			writer.write(generateSource(entity));
+		} finally {
+			writer.close();
+		}
+		return file;
+	}
+
+	private boolean hasPublicConstructor(Class<?> entityClass) {
+		if(!Modifier.isPublic(entityClass.getModifiers()) || Modifier.isAbstract(entityClass.getModifiers()))
+			return false;
+		if(entityClass.getEnclosingClass() != null && !Modifier.isStatic(entityClass.getModifiers()))
+			return false;
+		try {
+			return Modifier.isPublic(entityClass.getConstructor().getModifiers());
+		} catch (NoSuchMethodException e) {
+			return false;
+		}
+	}
+
+	private String primitiveSourceType(Class<?> type) {
+		if(type == Boolean.TYPE)		return "Boolean";
+		if(type == Character.TYPE)		return "Character";
+		return "Number";
+	}
+
+	private String stringLiteral(String s) {
+		return "\"" + s.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+	}
+
+	public static void main(String[] args) throws Exception {
+		if(args.length < 1) {
+			System.err.println("usage: DbMapperGenerator <source directory>");
+			System.exit(1);
+		}
+		File directory = new File(args[0]);
+		DbMapperGenerator generator = new DbMapperGenerator();
+		for(DbModel model : DbModelGroup.models().values()) {
+			for(DbEntity entity : model.entities()) {
+				if(entity.isAbstractClass())
+					continue;
+				File file = generator.writeSource(entity, directory);
+				System.out.println(entity.entityName() + " -> " + file.getPath() + " (mapperClass=\"" + mapperClassName(entity) + "\")");
+			}
+		}
+	}
+}
@@ -0,0 +1,266 @@
+package rdbms.util;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+public class DbMetrics implements DbMetricsMBean {
+
+	public enum Operation {
+		Query, Insert, Update, Delete, KeyGeneration, ToOneLoad, ToManyLoad
+	}
+	
+	public interface Reporter {
+		public void report(DbMetrics metrics);
+	}
+	
+	public static final String ObjectNameString = "rdbms:type=DbMetrics";
+	private static final long NanosPerMicro = 1000L;
+	private static final DbMetrics _shared = new DbMetrics();
+	private static volatile boolean _enabled = true;
+	
+	private final ConcurrentHashMap<String, EntityMetrics> _entities = new ConcurrentHashMap<String, EntityMetrics>();
+	private final DbHistogram _saveLatency = new DbHistogram();
+	private final DbHistogram _statementsPerSave = new DbHistogram();
+	private final List<Reporter> _reporters = new CopyOnWriteArrayList<Reporter>();
+	private Timer _timer;
+	
+	static {
+		_shared.registerMBean();
+	}
+	
+	public static DbMetrics shared() {
+		return _shared;
+	}
+	
+	public static long start() {
+		return _enabled ? System.nanoTime() : 0L;
+	}
+	
+	public static void record(String entityName, Operation operation, long startNanos) {
+		if(!_enabled || startNanos == 0L)
+			return;
+		_shared.entityMetrics(entityName)._latency[operation.ordinal()].record(System.nanoTime() - startNanos);
+	}
+	
+	public static void recordRows(String entityName, int rows) {
+		if(!_enabled)
+			return;
+		_shared.entityMetrics(entityName)._rows.record(rows);
+	}
+	
+	public static void recordSave(long startNanos, long statements) {
+		if(!_enabled || startNanos == 0L)
+			return;
+		_shared._saveLatency.record(System.nanoTime() - startNanos);
+		_shared._statementsPerSave.record(statements);
+	}
+	
+	public static void recordCacheHit(String entityName) {
+		if(_enabled)
+			_shared.entityMetrics(entityName)._cacheHits.incrementAndGet();
+	}
+	
+	public static void recordCacheMiss(String entityName) {
+		if(_enabled)
+			_shared.entityMetrics(entityName)._cacheMisses.incrementAndGet();
+	}
+	
+	private EntityMetrics entityMetrics(String entityName) {
+		EntityMetrics metrics = _entities.get(entityName);
+		if(metrics == null) {
+			EntityMetrics newMetrics = new EntityMetrics();
+			metrics = _entities.putIfAbsent(entityName, newMetrics);
+			if(metrics == null)
+				metrics = newMetrics;
+		}
+		return metrics;
+	}
+	
+	public DbHistogram latency(String entityName, Operation operation) {
+		EntityMetrics metrics = _entities.get(entityName);
+		return metrics != null ? metrics._latency[operation.ordinal()] : null;
+	}
+	
+	public DbHistogram rows(String entityName) {
+		EntityMetrics metrics = _entities.get(entityName);
+		return metrics != null ? metrics._rows : null;
+	}
+	
+	public DbHistogram saveLatency() {
+		return _saveLatency;
+	}
+	
+	public DbHistogram statementsPerSave() {
+		return _statementsPerSave;
+	}
+	
+	public boolean isEnabled() {
+		return _enabled;
+	}
+	
+	public void setEnabled(boolean enabled) {
+		_enabled = enabled;
+	}
+	
+	public long getQueryCount() {
+		long count = 0;
+		for(EntityMetrics metrics : _entities.values()) {
+			count += metrics._latency[Operation.Query.ordinal()].count();
+		}
+		return count;
+	}
+	
+	public long getSaveCount() {
+		return _saveLatency.count();
+	}
+	
+	public long getCacheHits() {
+		long count = 0;
+		for(EntityMetrics metrics : _entities.values()) {
+			count += metrics._cacheHits.get();
+		}
+		return count;
+	}
+	
+	public long getCacheMisses() {
+		long count = 0;
+		for(EntityMetrics metrics : _entities.values()) {
+			count += metrics._cacheMisses.get();
+		}
+		return count;
+	}
+	
+	public double getCacheHitRatio() {
+		return hitRatio(getCacheHits(), getCacheMisses());
+	}
+	
+	private static double hitRatio(long hits, long misses) {
+		long total = hits + misses;
+		return total > 0 ? (double) hits / total : 0.0;
+	}
+	
+	public String[] getEntityNames() {
+		List<String> names = new ArrayList<String>(_entities.keySet());
+		Collections.sort(names);
+		return names.toArray(new String[names.size()]);
+	}
+	
+	public String entitySummary(String entityName) {
+		EntityMetrics metrics = _entities.get(entityName);
+		if(metrics == null)
+			return null;
+		StringBuffer buffer = new StringBuffer();
+		buffer.append(entityName);
+		for(Operation operation : Operation.values()) {
+			DbHistogram histogram = metrics._latency[operation.ordinal()];
+			if(histogram.count() > 0)
+				buffer.append(" " + operation + "{" + histogram.summary(NanosPerMicro, "us") + "}");
+		}
+		if(metrics._rows.count() > 0)
+			buffer.append(" Rows{" + metrics._rows.summary(1L, "") + "}");
+		long hits = metrics._cacheHits.get();
+		long misses = metrics._cacheMisses.get();
+		if(hits + misses > 0)
+			buffer.append(" Cache{hits=" + hits + "; misses=" + misses + "; ratio=" + hitRatio(hits, misses) + "}");
+		return buffer.toString();
+	}
+	
+	public String[] getReport() {
+		List<String> lines = new ArrayList<String>();
+		if(_saveLatency.count() > 0) {
+			lines.add("Save{" + _saveLatency.summary(NanosPerMicro, "us") + "}");
+			lines.add("StatementsPerSave{" + _statementsPerSave.summary(1L, "") + "}");
+		}
+		for(String entityName : getEntityNames()) {
+			lines.add(entitySummary(entityName));
+		}
+		return lines.toArray(new String[lines.size()]);
+	}
+	
+	public void reset() {
+		_entities.clear();
+		_saveLatency.reset();
+		_statementsPerSave.reset();
+	}
+	
+	public void addReporter(Reporter reporter) {
+		_reporters.add(reporter);
+	}
+	
+	public void removeReporter(Reporter reporter) {
+		_reporters.remove(reporter);
+	}
+	
+	public void report() {
+		for(Reporter reporter : _reporters) {
+			try {
+				reporter.report(this);
+			} catch (RuntimeException e) {
+				DbLogger.rdbms_perf.warn("DbMetrics reporter " + reporter + " failed", e);
+			}
+		}
+	}
+	
+	public synchronized void startReporting(long periodMillis) {
+		stopReporting();
+		_timer = new Timer("DbMetrics reporter", true);
+		_timer.schedule(new TimerTask() {
+			@Override
+			public void run() {
+				report();
+			}
+		}, periodMillis, periodMillis);
+	}
+	
+	public synchronized void stopReporting() {
+		if(_timer != null) {
+			_timer.cancel();
+			_timer = null;
+		}
+	}
+	
+	private void registerMBean() {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = new ObjectName(ObjectNameString);
+			if(!server.isRegistered(name))
+				server.registerMBean(this, name);
+		} catch (Exception e) {
+			DbLogger.rdbms_perf.warn("Could not register DbMetrics MBean '" + ObjectNameString + "'", e);
+		}
+	}
+	
+	static class EntityMetrics {
+		final DbHistogram _latency[];
+		final DbHistogram _rows = new DbHistogram();
+		final AtomicLong _cacheHits = new AtomicLong();
+		final AtomicLong _cacheMisses = new AtomicLong();
+		
+		EntityMetrics() {
+			_latency = new DbHistogram[Operation.values().length];
+			for(int i = 0; i < _latency.length; i++) {
+				_latency[i] = new DbHistogram();
+			}
+		}
+	}
+	
+	public static class LoggerReporter implements Reporter {
+		public void report(DbMetrics metrics) {
+			if(!DbLogger.rdbms_perf.isInfoEnabled())
+				return;
+			for(String line : metrics.getReport()) {
+				DbLogger.rdbms_perf.info("[METRICS] " + line);
+			}
+		}
+	}
+}
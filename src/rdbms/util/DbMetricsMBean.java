@@ -0,0 +1,16 @@
+package rdbms.util;
+
+public interface DbMetricsMBean {
+
+	public boolean isEnabled();
+	public void setEnabled(boolean enabled);
+	public long getQueryCount();
+	public long getSaveCount();
+	public long getCacheHits();
+	public long getCacheMisses();
+	public double getCacheHitRatio();
+	public String[] getEntityNames();
+	public String[] getReport();
+	public String entitySummary(String entityName);
+	public void reset();
+}
@@ -0,0 +1,98 @@
+package rdbms.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+public class DbSQLTemplate {
+
+	private static final Pattern ParameterList = Pattern.compile("\\?(\\s*,\\s*\\?)+");
+	
+	private final String _template;
+	private final List<String> _values;
+	
+	private DbSQLTemplate(String template, List<String> values) {
+		_template = template;
+		_values = values;
+	}
+	
+	public static DbSQLTemplate parse(String sql) {
+		List<String> values = new ArrayList<String>();
+		String template = normalize(sql, values);
+		return new DbSQLTemplate(template, values);
+	}
+	
+	public static String normalize(String sql) {
+		return normalize(sql, null);
+	}
+	
+	private static String normalize(String sql, List<String> values) {
+		if(sql == null)
+			return null;
+		int length = sql.length();
+		StringBuffer b = new StringBuffer(length);
+		int i = 0;
+		while(i < length) {
+			char ch = sql.charAt(i);
+			if(ch == '\'') {
+				int start = i++;
+				while(i < length) {
+					if(sql.charAt(i) == '\'') {
+						if(i + 1 < length && sql.charAt(i + 1) == '\'') {
+							i += 2;
+							continue;
+						}
+						break;
+					}
+					i++;
+				}
+				i = Math.min(i + 1, length);
+				if(values != null)
+					values.add(sql.substring(start, i));
+				b.append('?');
+			} else if(ch == '"' || ch == '`') {
+				int start = i++;
+				while(i < length && sql.charAt(i) != ch) {
+					i++;
+				}
+				i = Math.min(i + 1, length);
+				b.append(sql, start, i);
+			} else if(Character.isDigit(ch) && (i == 0 || !isIdentifierChar(sql.charAt(i - 1)))) {
+				int start = i;
+				while(i < length && (Character.isDigit(sql.charAt(i)) || sql.charAt(i) == '.')) {
+					i++;
+				}
+				if(values != null)
+					values.add(sql.substring(start, i));
+				b.append('?');
+			} else if(Character.isWhitespace(ch)) {
+				while(i < length && Character.isWhitespace(sql.charAt(i))) {
+					i++;
+				}
+				if(b.length() > 0 && i < length)
+					b.append(' ');
+			} else {
+				b.append(ch);
+				i++;
+			}
+		}
+		return ParameterList.matcher(b).replaceAll("?, ...");
+	}
+	
+	private static boolean isIdentifierChar(char ch) {
+		return Character.isLetterOrDigit(ch) || ch == '_' || ch == '.' || ch == '$';
+	}
+	
+	public String template() {
+		return _template;
+	}
+	
+	public List<String> values() {
+		return _values;
+	}
+	
+	@Override
+	public String toString() {
+		return _template;
+	}
+}